@@ -7,7 +7,8 @@ import java.util.Deque;
 import java.util.LinkedList;
 
 /**
- * @implNote Not thread safe!
+ * @implNote Not thread safe! See {@link ConcurrentByteBufferPool} for buffers
+ *           which are released on other threads.
  */
 @RequiredArgsConstructor
 public final class ByteBufferPool extends ByteBufferProvider {
@@ -24,7 +25,12 @@ public final class ByteBufferPool extends ByteBufferProvider {
     }
 
     ByteBuffer buf = openSet.pop();
-    return buf.capacity() < cap ? factory.create(cap) : buf.clear();
+    if (buf.capacity() < cap) {
+      openSet.add(buf); // keep the smaller buffer pooled
+      return factory.create(cap);
+    }
+
+    return buf.clear();
   }
 
   @Override
@@ -4,10 +4,17 @@ import java.nio.ByteBuffer;
 
 public abstract class ByteBufferProvider {
 
+  /// The default maximum capacity retained per size class by size classed pools
+  public static final long DEFAULT_RETAINED_BYTES_PER_CLASS = 1024 * 1024 * 16; // 16 MB
+
   public static ByteBufferPool pooledDirect(int minimumCapacity) {
     return new ByteBufferPool(ByteBufferFactory.direct(), minimumCapacity);
   }
 
+  public static ConcurrentByteBufferPool sizeClassedDirect(int minimumCapacity, int maximumCapacity) {
+    return new ConcurrentByteBufferPool(ByteBufferFactory.direct(), minimumCapacity, maximumCapacity, DEFAULT_RETAINED_BYTES_PER_CLASS);
+  }
+
   /**
    * Try and acquire a byte buffer with the given capacity.
    *
@@ -33,6 +40,12 @@ public abstract class ByteBufferProvider {
    */
   public abstract void release(ByteBuffer buffer);
 
+  /**
+   * Release the pooled buffers which were not needed recently, called periodically
+   * by long-lived owners of the provider. Does nothing by default.
+   */
+  public void trim() { }
+
   /**
    * Release all pooled resources for this source.
    */
@@ -0,0 +1,417 @@
+package com.orbyfied.slate.util.buffer;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread safe byte buffer pool with power-of-two size classes, buffers may be
+ * acquired on one thread and released on another.
+ *
+ * Released buffers are cached in small per-thread magazines, full magazines are
+ * exchanged with a lock-free depot shared by all threads. The amount of magazines
+ * retained by a size class, in the depot and held by threads, is bounded so the
+ * retained bytes do not exceed the given maximum, buffers released beyond it are
+ * dropped and left to the garbage collector.
+ *
+ * {@link #trim()} drops the depot magazines which were not needed since the last trim.
+ * The magazine of a thread which did not use it for a whole trim interval is dropped
+ * the next time the thread uses the pool, until then it stays counted against the bound.
+ * The magazines of terminated threads are dropped by the next trim.
+ *
+ * Virtual threads do not get per-thread magazines, as there may be millions of them.
+ * They share a single partial magazine per size class instead, which is exchanged
+ * with the depot like the magazines of platform threads.
+ * Requests larger than the maximum capacity are served by unpooled buffers.
+ */
+public final class ConcurrentByteBufferPool extends ByteBufferProvider {
+
+  /// The maximum total capacity of the buffers cached in a single magazine
+  public static final int MAGAZINE_BYTES = 256 * 1024;
+  /// The maximum amount of buffers cached in a single magazine
+  public static final int MAX_MAGAZINE_SIZE = 16;
+
+  final ByteBufferFactory factory;
+  final int minimumShift;
+  final int maximumShift;
+  final SizeClass[] sizeClasses;
+
+  // The magazines of the current thread, indexed by size class
+  final ThreadLocal<Magazine[]> threadMagazines;
+  // The magazines of every thread, so the magazines of terminated threads can be dropped
+  final ConcurrentLinkedQueue<ThreadMagazines> allThreadMagazines = new ConcurrentLinkedQueue<>();
+
+  record ThreadMagazines(WeakReference<Thread> thread, Magazine[] magazines) { }
+
+  // Incremented by every trim, magazines remember the epoch they were last used in
+  volatile int trimEpoch;
+
+  public ConcurrentByteBufferPool(ByteBufferFactory factory, int minimumCapacity, int maximumCapacity, long maxRetainedBytesPerClass) {
+    if (minimumCapacity < 1 || minimumCapacity > maximumCapacity) {
+      throw new IllegalArgumentException("Invalid capacity bounds, minimum(" + minimumCapacity + ") maximum(" + maximumCapacity + ")");
+    }
+
+    this.factory = factory;
+    this.minimumShift = shiftFor(minimumCapacity);
+    this.maximumShift = shiftFor(maximumCapacity);
+
+    this.sizeClasses = new SizeClass[maximumShift - minimumShift + 1];
+    for (int i = 0; i < sizeClasses.length; i++) {
+      sizeClasses[i] = new SizeClass(1 << (minimumShift + i), maxRetainedBytesPerClass);
+    }
+
+    this.threadMagazines = ThreadLocal.withInitial(() -> {
+      final Magazine[] magazines = new Magazine[sizeClasses.length];
+      allThreadMagazines.add(new ThreadMagazines(new WeakReference<>(Thread.currentThread()), magazines));
+      return magazines;
+    });
+  }
+
+  // Round up to the next power of two
+  static int shiftFor(int capacity) {
+    return capacity <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(capacity - 1);
+  }
+
+  /**
+   * Retained buffers of a single capacity.
+   */
+  static final class SizeClass {
+    final int capacity;
+    final int magazineSize;
+    final int maxMagazines;      // The maximum amount of magazines retained, by the depot and by threads
+
+    final ConcurrentLinkedQueue<Magazine> depot = new ConcurrentLinkedQueue<>();
+    final AtomicInteger depotSize = new AtomicInteger(0);
+    volatile int depotLowWaterMark; // The lowest depot size since the last trim
+
+    // The amount of magazines retained, in the depot or held by threads
+    final AtomicInteger magazineCount = new AtomicInteger(0);
+
+    // The magazine shared by virtual threads, guarded by this size class
+    Magazine sharedMagazine;
+
+    SizeClass(int capacity, long maxRetainedBytes) {
+      this.capacity = capacity;
+      this.magazineSize = Math.max(1, Math.min(MAX_MAGAZINE_SIZE, MAGAZINE_BYTES / capacity));
+      this.maxMagazines = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxRetainedBytes / ((long) capacity * magazineSize)));
+    }
+
+    // Create a magazine counted against the bound, null if the maximum amount is retained already
+    Magazine newMagazine(int epoch) {
+      int count;
+      do {
+        count = magazineCount.get();
+        if (count >= maxMagazines) {
+          return null;
+        }
+      } while (!magazineCount.compareAndSet(count, count + 1));
+
+      final Magazine magazine = new Magazine(magazineSize);
+      magazine.epoch = epoch;
+      return magazine;
+    }
+
+    // Stop retaining a magazine created by newMagazine
+    void dropMagazine() {
+      magazineCount.decrementAndGet();
+    }
+
+    Magazine takeFromDepot() {
+      final Magazine magazine = depot.poll();
+      if (magazine != null) {
+        final int size = depotSize.decrementAndGet();
+        if (size < depotLowWaterMark) {
+          depotLowWaterMark = size;
+        }
+      }
+
+      return magazine;
+    }
+
+    // Hand a loaded magazine to the depot, it is already counted against the bound
+    void offerToDepot(Magazine magazine) {
+      depotSize.incrementAndGet();
+      depot.offer(magazine);
+    }
+
+    // Take a buffer from the shared magazine, refilling it from the depot once it is empty
+    ByteBuffer popShared(int epoch) {
+      synchronized (this) {
+        if (sharedMagazine != null) {
+          sharedMagazine.epoch = epoch;
+          final ByteBuffer buf = sharedMagazine.pop();
+          if (buf != null) {
+            return buf;
+          }
+        }
+      }
+
+      final Magazine magazine = takeFromDepot();
+      if (magazine == null) {
+        return null;
+      }
+
+      final ByteBuffer buf = magazine.pop();
+      magazine.epoch = epoch;
+      synchronized (this) {
+        // the empty magazine is replaced, another thread may have refilled it in the meantime
+        if (sharedMagazine == null || sharedMagazine.count == 0) {
+          if (sharedMagazine != null) {
+            dropMagazine();
+          }
+
+          sharedMagazine = magazine;
+          return buf;
+        }
+      }
+
+      if (magazine.count > 0) {
+        offerToDepot(magazine);
+      } else {
+        dropMagazine();
+      }
+
+      return buf;
+    }
+
+    // Put a buffer into the shared magazine, handing it to the depot once it is full
+    void pushShared(ByteBuffer buf, int epoch) {
+      final Magazine full;
+      synchronized (this) {
+        if (sharedMagazine == null && (sharedMagazine = newMagazine(epoch)) == null) {
+          return; // dropped above the retention bound
+        }
+
+        sharedMagazine.epoch = epoch;
+        if (sharedMagazine.push(buf)) {
+          return;
+        }
+
+        // the full magazine goes to the depot, allocating a magazine per magazineSize buffers
+        full = sharedMagazine;
+        sharedMagazine = newMagazine(epoch);
+        if (sharedMagazine != null) {
+          sharedMagazine.push(buf);
+        }
+      }
+
+      offerToDepot(full);
+    }
+  }
+
+  /**
+   * A fixed size stack of cached buffers, owned by one thread at a time.
+   */
+  static final class Magazine {
+    final ByteBuffer[] buffers;
+    int count;
+    int epoch;    // The trim epoch this magazine was last used in
+
+    Magazine(int size) {
+      this.buffers = new ByteBuffer[size];
+    }
+
+    ByteBuffer pop() {
+      if (count == 0) {
+        return null;
+      }
+
+      final ByteBuffer buf = buffers[--count];
+      buffers[count] = null;
+      return buf;
+    }
+
+    boolean push(ByteBuffer buf) {
+      if (count == buffers.length) {
+        return false;
+      }
+
+      buffers[count++] = buf;
+      return true;
+    }
+  }
+
+  @Override
+  public ByteBuffer acquire(int cap) {
+    if (cap > 1 << maximumShift) {
+      return factory.create(cap); // too large to be pooled
+    }
+
+    final int index = Math.max(0, shiftFor(cap) - minimumShift);
+    final SizeClass sizeClass = sizeClasses[index];
+    ByteBuffer buf;
+
+    final int epoch = trimEpoch;
+    if (Thread.currentThread().isVirtual()) {
+      buf = sizeClass.popShared(epoch);
+      return buf != null ? buf.clear() : factory.create(sizeClass.capacity);
+    }
+
+    final Magazine[] magazines = threadMagazines.get();
+    final Magazine magazine = threadMagazine(magazines, index, epoch);
+    if (magazine == null || (buf = magazine.pop()) == null) {
+      // exchange the empty magazine for a loaded one from the depot,
+      // the empty one is not kept so it does not count against the bound
+      if (magazine != null) {
+        magazines[index] = null;
+        sizeClass.dropMagazine();
+      }
+
+      final Magazine loaded = sizeClass.takeFromDepot();
+      if (loaded == null) {
+        return factory.create(sizeClass.capacity);
+      }
+
+      loaded.epoch = epoch;
+      magazines[index] = loaded;
+      buf = loaded.pop(); // the depot only holds loaded magazines
+    }
+
+    return buf.clear();
+  }
+
+  @Override
+  public ByteBuffer resize(ByteBuffer oldBuffer, int cap) {
+    ByteBuffer buf = acquire(cap);
+    buf.put(oldBuffer);
+    release(oldBuffer);
+    return buf;
+  }
+
+  @Override
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || buffer.isReadOnly()) return;
+
+    // only pool buffers which match a size class exactly
+    final int cap = buffer.capacity();
+    if (Integer.bitCount(cap) != 1 || cap < 1 << minimumShift || cap > 1 << maximumShift) {
+      return;
+    }
+
+    final int index = shiftFor(cap) - minimumShift;
+    final SizeClass sizeClass = sizeClasses[index];
+
+    final int epoch = trimEpoch;
+    if (Thread.currentThread().isVirtual()) {
+      sizeClass.pushShared(buffer, epoch);
+      return;
+    }
+
+    final Magazine[] magazines = threadMagazines.get();
+    Magazine magazine = threadMagazine(magazines, index, epoch);
+    if (magazine == null) {
+      if ((magazine = sizeClass.newMagazine(epoch)) == null) {
+        return; // dropped above the retention bound
+      }
+
+      magazines[index] = magazine;
+    }
+
+    if (!magazine.push(buffer)) {
+      // hand the full magazine to the depot and start a new one,
+      // drop the buffer if the size class retains the maximum already
+      sizeClass.offerToDepot(magazine);
+      magazine = magazines[index] = sizeClass.newMagazine(epoch);
+      if (magazine != null) {
+        magazine.push(buffer);
+      }
+    }
+  }
+
+  // Get the magazine of the current thread for the given size class, dropping
+  // it if the thread did not use it for a whole trim interval
+  private Magazine threadMagazine(Magazine[] magazines, int index, int epoch) {
+    final Magazine magazine = magazines[index];
+    if (magazine == null) {
+      return null;
+    }
+
+    if (epoch - magazine.epoch >= 2) {
+      magazines[index] = null;
+      sizeClasses[index].dropMagazine();
+      return null;
+    }
+
+    magazine.epoch = epoch;
+    return magazine;
+  }
+
+  /**
+   * Drop the depot magazines of every size class and the magazines shared by virtual
+   * threads which were not needed since the last trim, as well as the magazines of
+   * terminated threads, releasing the memory of idle buffers. Idle magazines of live
+   * threads are dropped once the threads use the pool again.
+   */
+  @Override
+  public void trim() {
+    dropTerminatedThreadMagazines();
+
+    final int epoch = trimEpoch;
+    for (SizeClass sizeClass : sizeClasses) {
+      int unused = sizeClass.depotLowWaterMark;
+      while (unused-- > 0 && sizeClass.depot.poll() != null) {
+        sizeClass.depotSize.decrementAndGet();
+        sizeClass.dropMagazine();
+      }
+
+      sizeClass.depotLowWaterMark = sizeClass.depotSize.get();
+      synchronized (sizeClass) {
+        if (sizeClass.sharedMagazine != null && sizeClass.sharedMagazine.epoch != epoch) {
+          sizeClass.sharedMagazine = null;
+          sizeClass.dropMagazine();
+        }
+      }
+    }
+
+    trimEpoch = epoch + 1;
+  }
+
+  @Override
+  public void close() {
+    for (SizeClass sizeClass : sizeClasses) {
+      while (sizeClass.depot.poll() != null) {
+        sizeClass.depotSize.decrementAndGet();
+        sizeClass.dropMagazine();
+      }
+
+      sizeClass.depotLowWaterMark = 0;
+      synchronized (sizeClass) {
+        if (sizeClass.sharedMagazine != null) {
+          sizeClass.sharedMagazine = null;
+          sizeClass.dropMagazine();
+        }
+      }
+    }
+
+    // the magazines of other live threads are dropped once they use the pool again
+    trimEpoch += 2;
+    dropThreadMagazines(threadMagazines.get());
+    threadMagazines.remove();
+    dropTerminatedThreadMagazines();
+  }
+
+  private void dropTerminatedThreadMagazines() {
+    final Iterator<ThreadMagazines> iterator = allThreadMagazines.iterator();
+    while (iterator.hasNext()) {
+      final ThreadMagazines entry = iterator.next();
+      final Thread thread = entry.thread().get();
+      if (thread == null || !thread.isAlive()) {
+        dropThreadMagazines(entry.magazines());
+        iterator.remove();
+      }
+    }
+  }
+
+  // Drop the magazines of a thread which is terminated or the current thread
+  private void dropThreadMagazines(Magazine[] magazines) {
+    for (int i = 0; i < magazines.length; i++) {
+      if (magazines[i] != null) {
+        magazines[i] = null;
+        sizeClasses[i].dropMagazine();
+      }
+    }
+  }
+
+}
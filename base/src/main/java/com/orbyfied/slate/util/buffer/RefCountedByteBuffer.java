@@ -0,0 +1,68 @@
+package com.orbyfied.slate.util.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pooled byte buffer which may be shared by multiple owners, it is released
+ * back to its provider once the last reference has been released.
+ *
+ * A new instance starts out with a single reference held by the creator.
+ */
+public final class RefCountedByteBuffer {
+
+  final ByteBuffer buffer;
+  final ByteBufferProvider provider;
+
+  final AtomicInteger refCount = new AtomicInteger(1);
+
+  public RefCountedByteBuffer(ByteBuffer buffer, ByteBufferProvider provider) {
+    this.buffer = buffer;
+    this.provider = provider;
+  }
+
+  public ByteBuffer buffer() {
+    return buffer;
+  }
+
+  public int refCount() {
+    return refCount.get();
+  }
+
+  /**
+   * Add a reference to this buffer, the caller must already hold a reference.
+   *
+   * @return This.
+   */
+  public RefCountedByteBuffer retain() {
+    if (refCount.getAndIncrement() <= 0) {
+      throw new IllegalStateException("Buffer was already released");
+    }
+
+    return this;
+  }
+
+  /**
+   * Release a reference to this buffer, returning it to the provider if it
+   * was the last reference.
+   *
+   * @return Whether the buffer was returned to the provider.
+   */
+  public boolean release() {
+    final int count = refCount.decrementAndGet();
+    if (count == 0) {
+      if (provider != null) {
+        provider.release(buffer);
+      }
+
+      return true;
+    }
+
+    if (count < 0) {
+      throw new IllegalStateException("Buffer was already released");
+    }
+
+    return false;
+  }
+
+}
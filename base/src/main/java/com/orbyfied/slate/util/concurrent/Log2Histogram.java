@@ -0,0 +1,91 @@
+package com.orbyfied.slate.util.concurrent;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values with one bucket per power of two, which may
+ * be recorded to by any amount of threads without contention and without allocating.
+ *
+ * Bucket 0 counts the value 0, bucket i counts the values in [2^(i-1), 2^i).
+ */
+public final class Log2Histogram {
+
+  /// The amount of buckets, enough for every non-negative long
+  public static final int BUCKETS = 64;
+
+  final LongAdder[] buckets = new LongAdder[BUCKETS];
+  final LongAdder sum = new LongAdder();
+
+  public Log2Histogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /// The bucket the given value is counted in
+  public static int bucketOf(long value) {
+    return value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+  }
+
+  /// The largest value counted in the given bucket
+  public static long bucketUpperBound(int bucket) {
+    return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+  }
+
+  /**
+   * Record the given value, negative values are counted as 0.
+   */
+  public void record(long value) {
+    buckets[bucketOf(value)].increment();
+    sum.add(Math.max(0, value));
+  }
+
+  /**
+   * Take a snapshot of the current counts, values recorded concurrently
+   * may or may not be included.
+   */
+  public Snapshot snapshot() {
+    final long[] counts = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts[i] = buckets[i].sum();
+    }
+
+    return new Snapshot(counts, count, sum.sum());
+  }
+
+  /**
+   * The counts of a histogram at some point in time.
+   *
+   * @param counts The amount of values per bucket.
+   * @param count The total amount of values.
+   * @param sum The sum of all values.
+   */
+  public record Snapshot(long[] counts, long count, long sum) {
+
+    public double mean() {
+      return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Get the upper bound of the bucket containing the given quantile, the
+     * actual value is at least half of the returned value.
+     *
+     * @param quantile The quantile, from 0 to 1.
+     */
+    public long quantile(double quantile) {
+      final long rank = (long) Math.ceil(quantile * count);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank && seen > 0) {
+          return bucketUpperBound(i);
+        }
+      }
+
+      return 0;
+    }
+
+  }
+
+}
@@ -0,0 +1,76 @@
+package com.orbyfied.slate.util.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free and allocation-free queue for exactly one producer
+ * thread and one consumer thread at a time.
+ *
+ * @param <E> The element type.
+ */
+@SuppressWarnings("unchecked")
+public final class SpscArrayQueue<E> {
+
+  final Object[] elements;
+  final int mask;
+
+  final AtomicLong head = new AtomicLong(0); // The index of the next element to poll, written by the consumer
+  final AtomicLong tail = new AtomicLong(0); // The index of the next element to offer, written by the producer
+
+  public SpscArrayQueue(int capacity) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+
+    final int actualCapacity = Integer.highestOneBit(capacity - 1) << 1;
+    this.elements = new Object[Math.max(1, actualCapacity)];
+    this.mask = elements.length - 1;
+  }
+
+  public int capacity() {
+    return elements.length;
+  }
+
+  /**
+   * Add an element to the tail of the queue, only to be called by the producer.
+   *
+   * @return Whether the element was added, false if the queue is full.
+   */
+  public boolean offer(E element) {
+    final long t = tail.get();
+    if (t - head.get() >= elements.length) {
+      return false;
+    }
+
+    elements[(int) t & mask] = element;
+    tail.lazySet(t + 1); // publishes the element
+    return true;
+  }
+
+  /**
+   * Remove the element at the head of the queue, only to be called by the consumer.
+   *
+   * @return The element or null if the queue is empty.
+   */
+  public E poll() {
+    final long h = head.get();
+    if (h >= tail.get()) {
+      return null;
+    }
+
+    final int index = (int) h & mask;
+    final E element = (E) elements[index];
+    elements[index] = null;
+    head.set(h + 1);
+    return element;
+  }
+
+  public int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  public boolean isEmpty() {
+    return tail.get() == head.get();
+  }
+
+}
@@ -0,0 +1,299 @@
+package com.orbyfied.slate.util.buffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentByteBufferPoolTest {
+
+  // Counts the buffers created by the pool
+  static final class CountingFactory implements ByteBufferFactory {
+    final AtomicInteger created = new AtomicInteger();
+
+    @Override
+    public ByteBuffer create(int capacity) {
+      created.incrementAndGet();
+      return ByteBuffer.allocate(capacity);
+    }
+  }
+
+  final CountingFactory factory = new CountingFactory();
+
+  ConcurrentByteBufferPool pool(long maxRetainedBytesPerClass) {
+    return new ConcurrentByteBufferPool(factory, 64, 4096, maxRetainedBytesPerClass);
+  }
+
+  static void run(Thread.Builder builder, Runnable runnable) throws InterruptedException {
+    builder.start(runnable).join();
+  }
+
+  static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  void rejectsInvalidBounds() {
+    assertThrows(IllegalArgumentException.class, () -> new ConcurrentByteBufferPool(factory, 0, 64, 1024));
+    assertThrows(IllegalArgumentException.class, () -> new ConcurrentByteBufferPool(factory, 128, 64, 1024));
+  }
+
+  @Test
+  void roundsUpToSizeClasses() {
+    final ConcurrentByteBufferPool pool = pool(1 << 20);
+    assertEquals(64, pool.acquire(1).capacity());
+    assertEquals(64, pool.acquire(64).capacity());
+    assertEquals(128, pool.acquire(65).capacity());
+    assertEquals(4096, pool.acquire(4096).capacity());
+  }
+
+  @Test
+  void servesOversizeRequestsUnpooled() {
+    final ConcurrentByteBufferPool pool = pool(1 << 20);
+    final ByteBuffer buf = pool.acquire(5000);
+    assertEquals(5000, buf.capacity());
+
+    pool.release(buf);
+    assertNotSame(buf, pool.acquire(5000));
+  }
+
+  @Test
+  void reusesReleasedBuffersOnTheSameThread() {
+    final ConcurrentByteBufferPool pool = pool(1 << 20);
+    final ByteBuffer buf = pool.acquire(100);
+    buf.put((byte) 1).flip();
+    pool.release(buf);
+
+    final ByteBuffer reused = pool.acquire(120);
+    assertSame(buf, reused);
+    assertEquals(0, reused.position());
+    assertEquals(reused.capacity(), reused.limit());
+    assertEquals(1, factory.created.get());
+  }
+
+  @Test
+  void ignoresReadOnlyAndForeignBuffers() {
+    final ConcurrentByteBufferPool pool = pool(1 << 20);
+    pool.release(ByteBuffer.allocate(128).asReadOnlyBuffer());
+    pool.release(ByteBuffer.allocate(100)); // not a size class
+    pool.release(ByteBuffer.allocate(32));  // below the minimum
+    pool.release(null);
+
+    pool.acquire(100);
+    assertEquals(1, factory.created.get());
+  }
+
+  @Test
+  void exchangesFullMagazinesAcrossThreads() throws InterruptedException {
+    final ConcurrentByteBufferPool pool = pool(1 << 20);
+    final int magazineSize = pool.sizeClasses[0].magazineSize;
+
+    // one more than a magazine, so the full magazine is handed to the depot
+    final Set<ByteBuffer> released = Collections.newSetFromMap(new IdentityHashMap<>());
+    run(Thread.ofPlatform(), () -> {
+      for (int i = 0; i <= magazineSize; i++) {
+        final ByteBuffer buf = ByteBuffer.allocate(64);
+        released.add(buf);
+        pool.release(buf);
+      }
+    });
+
+    assertEquals(1, pool.sizeClasses[0].depotSize.get());
+    for (int i = 0; i < magazineSize; i++) {
+      assertTrue(released.contains(pool.acquire(64)));
+    }
+
+    assertEquals(0, pool.sizeClasses[0].depotSize.get());
+    assertEquals(0, factory.created.get());
+  }
+
+  @Test
+  void boundsTheRetainedMagazines() throws InterruptedException {
+    // room for exactly one magazine of the smallest size class
+    final ConcurrentByteBufferPool pool = pool(64 * ConcurrentByteBufferPool.MAX_MAGAZINE_SIZE);
+    final ConcurrentByteBufferPool.SizeClass sizeClass = pool.sizeClasses[0];
+    assertEquals(1, sizeClass.maxMagazines);
+
+    run(Thread.ofPlatform(), () -> {
+      for (int i = 0; i < sizeClass.magazineSize * 4; i++) {
+        pool.release(ByteBuffer.allocate(64));
+      }
+    });
+
+    assertEquals(1, sizeClass.depotSize.get());
+    assertEquals(1, sizeClass.depot.size());
+    assertEquals(1, sizeClass.magazineCount.get());
+  }
+
+  @Test
+  void countsMagazinesHeldByThreadsAgainstTheBound() throws InterruptedException {
+    // room for two magazines of the smallest size class
+    final ConcurrentByteBufferPool pool = pool(2 * 64 * ConcurrentByteBufferPool.MAX_MAGAZINE_SIZE);
+    final ConcurrentByteBufferPool.SizeClass sizeClass = pool.sizeClasses[0];
+
+    // each thread holds a partial magazine, the third one has no room left
+    final Object lock = new Object();
+    final List<Thread> threads = new ArrayList<>();
+    final CountDownLatch released = new CountDownLatch(3);
+    final CountDownLatch exit = new CountDownLatch(1);
+    for (int i = 0; i < 3; i++) {
+      threads.add(Thread.ofPlatform().start(() -> {
+        synchronized (lock) {
+          pool.release(ByteBuffer.allocate(64));
+        }
+
+        released.countDown();
+        awaitUninterruptibly(exit);
+      }));
+    }
+
+    released.await();
+    assertEquals(2, sizeClass.magazineCount.get());
+
+    // the magazines of live threads are kept, those of terminated threads are dropped
+    pool.trim();
+    assertEquals(2, sizeClass.magazineCount.get());
+
+    exit.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    pool.trim();
+    assertEquals(0, sizeClass.magazineCount.get());
+    assertTrue(pool.allThreadMagazines.isEmpty());
+  }
+
+  @Test
+  void dropsThreadMagazinesUnusedForAWholeTrimInterval() {
+    final ConcurrentByteBufferPool pool = pool(1 << 20);
+    final ConcurrentByteBufferPool.SizeClass sizeClass = pool.sizeClasses[0];
+
+    // used in the interval before the trim
+    final ByteBuffer buf = ByteBuffer.allocate(64);
+    pool.release(buf);
+    pool.trim();
+    assertSame(buf, pool.acquire(64));
+
+    // not used during the interval between two trims
+    pool.release(buf);
+    pool.trim();
+    pool.trim();
+    assertEquals(1, sizeClass.magazineCount.get());
+    assertNotSame(buf, pool.acquire(64));
+    assertEquals(0, sizeClass.magazineCount.get());
+  }
+
+  @Test
+  void trimDropsUnusedSharedMagazines() throws InterruptedException {
+    final ConcurrentByteBufferPool pool = pool(1 << 20);
+    final ConcurrentByteBufferPool.SizeClass sizeClass = pool.sizeClasses[0];
+
+    run(Thread.ofVirtual(), () -> pool.release(ByteBuffer.allocate(64)));
+    pool.trim();
+    assertNotNull(sizeClass.sharedMagazine);
+
+    pool.trim();
+    assertNull(sizeClass.sharedMagazine);
+    assertEquals(0, sizeClass.magazineCount.get());
+  }
+
+  @Test
+  void sharesAPartialMagazineBetweenVirtualThreads() throws InterruptedException {
+    final ConcurrentByteBufferPool pool = pool(1 << 20);
+    final ConcurrentByteBufferPool.SizeClass sizeClass = pool.sizeClasses[0];
+
+    final ByteBuffer buf = ByteBuffer.allocate(64);
+    run(Thread.ofVirtual(), () -> pool.release(buf));
+
+    // the partial magazine is not handed to the depot, but visible to other virtual threads
+    assertEquals(0, sizeClass.depotSize.get());
+    final ByteBuffer[] acquired = new ByteBuffer[1];
+    run(Thread.ofVirtual(), () -> acquired[0] = pool.acquire(64));
+    assertSame(buf, acquired[0]);
+  }
+
+  @Test
+  void virtualThreadsOnlyHandFullMagazinesToTheDepot() throws InterruptedException {
+    final ConcurrentByteBufferPool pool = pool(1 << 20);
+    final ConcurrentByteBufferPool.SizeClass sizeClass = pool.sizeClasses[0];
+
+    final int count = sizeClass.magazineSize * 2 + 1;
+    final List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      threads.add(Thread.ofVirtual().start(() -> pool.release(ByteBuffer.allocate(64))));
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(2, sizeClass.depotSize.get());
+    assertEquals(1, sizeClass.sharedMagazine.count);
+
+    // all of them are served to virtual threads without creating buffers
+    run(Thread.ofVirtual(), () -> {
+      for (int i = 0; i < count; i++) {
+        assertNotNull(pool.acquire(64));
+      }
+    });
+
+    assertEquals(0, factory.created.get());
+  }
+
+  @Test
+  void trimDropsMagazinesUnusedSinceTheLastTrim() throws InterruptedException {
+    final ConcurrentByteBufferPool pool = pool(1 << 20);
+    final ConcurrentByteBufferPool.SizeClass sizeClass = pool.sizeClasses[0];
+
+    run(Thread.ofPlatform(), () -> {
+      for (int i = 0; i <= sizeClass.magazineSize * 2; i++) {
+        pool.release(ByteBuffer.allocate(64));
+      }
+    });
+
+    assertEquals(2, sizeClass.depotSize.get());
+
+    // the first trim only records the current size
+    pool.trim();
+    assertEquals(2, sizeClass.depotSize.get());
+
+    // one magazine is used before the next trim, the other one is dropped
+    pool.acquire(64);
+    pool.trim();
+    assertEquals(0, sizeClass.depotSize.get());
+    assertTrue(sizeClass.depot.isEmpty());
+    assertEquals(1, sizeClass.magazineCount.get()); // held by this thread
+  }
+
+  @Test
+  void closeDropsRetainedBuffers() throws InterruptedException {
+    final ConcurrentByteBufferPool pool = pool(1 << 20);
+    final ConcurrentByteBufferPool.SizeClass sizeClass = pool.sizeClasses[0];
+
+    run(Thread.ofPlatform(), () -> {
+      for (int i = 0; i <= sizeClass.magazineSize; i++) {
+        pool.release(ByteBuffer.allocate(64));
+      }
+    });
+    run(Thread.ofVirtual(), () -> pool.release(ByteBuffer.allocate(64)));
+
+    pool.close();
+    assertEquals(0, sizeClass.depotSize.get());
+    assertNull(sizeClass.sharedMagazine);
+    assertEquals(0, sizeClass.magazineCount.get());
+  }
+
+}
@@ -0,0 +1,96 @@
+package com.orbyfied.slate.util.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpscArrayQueueTest {
+
+  @Test
+  void roundsCapacityUpToAPowerOfTwo() {
+    assertEquals(1, new SpscArrayQueue<>(1).capacity());
+    assertEquals(2, new SpscArrayQueue<>(2).capacity());
+    assertEquals(4, new SpscArrayQueue<>(3).capacity());
+    assertEquals(1024, new SpscArrayQueue<>(1000).capacity());
+
+    assertThrows(IllegalArgumentException.class, () -> new SpscArrayQueue<>(0));
+    assertThrows(IllegalArgumentException.class, () -> new SpscArrayQueue<>((1 << 30) + 1));
+  }
+
+  @Test
+  void pollsInOfferOrder() {
+    final SpscArrayQueue<Integer> queue = new SpscArrayQueue<>(4);
+    assertTrue(queue.isEmpty());
+    assertNull(queue.poll());
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(queue.offer(i));
+    }
+
+    assertEquals(3, queue.size());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, queue.poll());
+    }
+
+    assertTrue(queue.isEmpty());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  void rejectsOffersWhenFull() {
+    final SpscArrayQueue<Integer> queue = new SpscArrayQueue<>(2);
+    assertTrue(queue.offer(1));
+    assertTrue(queue.offer(2));
+    assertFalse(queue.offer(3));
+    assertEquals(2, queue.size());
+
+    assertEquals(1, queue.poll());
+    assertTrue(queue.offer(3));
+    assertEquals(2, queue.poll());
+    assertEquals(3, queue.poll());
+  }
+
+  @Test
+  void wrapsAroundTheArray() {
+    final SpscArrayQueue<Integer> queue = new SpscArrayQueue<>(4);
+    for (int i = 0; i < 100; i++) {
+      assertTrue(queue.offer(i));
+      assertTrue(queue.offer(-i));
+      assertEquals(i, queue.poll());
+      assertEquals(-i, queue.poll());
+    }
+
+    assertTrue(queue.isEmpty());
+    for (Object element : queue.elements) {
+      assertNull(element); // polled elements are not retained
+    }
+  }
+
+  @Test
+  void transfersElementsBetweenTwoThreads() throws InterruptedException {
+    final SpscArrayQueue<Integer> queue = new SpscArrayQueue<>(64);
+    final int count = 200_000;
+
+    final Thread producer = Thread.ofPlatform().start(() -> {
+      for (int i = 0; i < count; i++) {
+        while (!queue.offer(i)) {
+          Thread.yield();
+        }
+      }
+    });
+
+    for (int expected = 0; expected < count; ) {
+      final Integer element = queue.poll();
+      if (element == null) {
+        Thread.yield();
+        continue;
+      }
+
+      assertEquals(expected++, element);
+    }
+
+    producer.join();
+    assertTrue(queue.isEmpty());
+  }
+
+}
@@ -0,0 +1,81 @@
+package com.orbyfied.slate.network;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * The payload sizes of the frames sent in a benchmark.
+ */
+public enum FrameSizeDistribution {
+
+  /// Small control and state messages
+  SMALL {
+    @Override
+    public int next(Random random) {
+      return 16 + random.nextInt(240);
+    }
+  },
+
+  /// Mostly small messages with occasional larger ones
+  MIXED {
+    @Override
+    public int next(Random random) {
+      return random.nextInt(100) < 95 ?
+          32 + random.nextInt(480) :
+          16 * 1024 + random.nextInt(48 * 1024);
+    }
+  },
+
+  /// Bulk transfers larger than the read buffer
+  LARGE {
+    @Override
+    public int next(Random random) {
+      return 64 * 1024 + random.nextInt(448 * 1024);
+    }
+  };
+
+  /**
+   * Get the size of the next frame payload, excluding the channel id.
+   */
+  public abstract int next(Random random);
+
+  /**
+   * Encode frames with sizes from this distribution into a single buffer.
+   *
+   * @param channel The channel to send the frames on.
+   * @param minimumBytes The minimum total size of the encoded frames.
+   * @param seed The seed for the frame sizes and contents.
+   * @return The flipped buffer holding the frames and the amount of frames.
+   */
+  public EncodedFrames encode(short channel, int minimumBytes, long seed) {
+    final Random random = new Random(seed);
+    ByteBuffer buffer = ByteBuffer.allocate(minimumBytes + 1024);
+    int frames = 0;
+    while (buffer.position() < minimumBytes) {
+      final int size = next(random);
+      final int encodedSize = Connection.HEADER_SIZE + Connection.CHANNEL_SIZE + size;
+      if (buffer.remaining() < encodedSize) {
+        buffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + encodedSize)).put(buffer.flip());
+      }
+
+      buffer.putInt(Connection.CHANNEL_SIZE + size);
+      buffer.putShort(channel);
+      for (int i = 0; i < size; i++) {
+        buffer.put((byte) random.nextInt());
+      }
+
+      frames++;
+    }
+
+    return new EncodedFrames(buffer.flip(), frames);
+  }
+
+  /**
+   * Encoded frames ready to be sent or read.
+   *
+   * @param buffer The encoded frames.
+   * @param frames The amount of frames.
+   */
+  public record EncodedFrames(ByteBuffer buffer, int frames) { }
+
+}
@@ -0,0 +1,168 @@
+package com.orbyfied.slate.network;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Set;
+
+/**
+ * A socket channel which replays fixed data to reads and discards writes, so the
+ * read path can be measured without the kernel. Once all data was read, reads
+ * return 0 like a drained non-blocking socket until the channel is rewound.
+ */
+public final class InMemorySocketChannel extends SocketChannel {
+
+  final ByteBuffer data;
+
+  /// The maximum amount of bytes returned by a single read, 0 for no limit
+  final int maxBytesPerRead;
+
+  // The amount of reads since the last rewind
+  int reads;
+
+  public InMemorySocketChannel(ByteBuffer data, int maxBytesPerRead) {
+    super(SelectorProvider.provider());
+    this.data = data.duplicate();
+    this.maxBytesPerRead = maxBytesPerRead;
+  }
+
+  /// Make the data available to be read again
+  public void rewind() {
+    data.rewind();
+    reads = 0;
+  }
+
+  /// Whether all data was read since the last rewind
+  public boolean isDrained() {
+    return !data.hasRemaining();
+  }
+
+  public int reads() {
+    return reads;
+  }
+
+  @Override
+  public int read(ByteBuffer dst) {
+    if (!data.hasRemaining()) {
+      return 0;
+    }
+
+    int count = Math.min(dst.remaining(), data.remaining());
+    if (maxBytesPerRead > 0) {
+      count = Math.min(count, maxBytesPerRead);
+    }
+
+    dst.put(dst.position(), data, data.position(), count);
+    dst.position(dst.position() + count);
+    data.position(data.position() + count);
+    reads++;
+    return count;
+  }
+
+  @Override
+  public long read(ByteBuffer[] dsts, int offset, int length) {
+    long total = 0;
+    for (int i = offset; i < offset + length; i++) {
+      final int read = read(dsts[i]);
+      total += read;
+      if (dsts[i].hasRemaining()) {
+        break;
+      }
+    }
+
+    return total;
+  }
+
+  @Override
+  public int write(ByteBuffer src) {
+    final int count = src.remaining();
+    src.position(src.limit());
+    return count;
+  }
+
+  @Override
+  public long write(ByteBuffer[] srcs, int offset, int length) {
+    long total = 0;
+    for (int i = offset; i < offset + length; i++) {
+      total += write(srcs[i]);
+    }
+
+    return total;
+  }
+
+  @Override
+  public SocketChannel bind(SocketAddress local) {
+    return this;
+  }
+
+  @Override
+  public <T> SocketChannel setOption(SocketOption<T> name, T value) {
+    return this;
+  }
+
+  @Override
+  public <T> T getOption(SocketOption<T> name) {
+    return null;
+  }
+
+  @Override
+  public Set<SocketOption<?>> supportedOptions() {
+    return Set.of();
+  }
+
+  @Override
+  public SocketChannel shutdownInput() {
+    return this;
+  }
+
+  @Override
+  public SocketChannel shutdownOutput() {
+    return this;
+  }
+
+  @Override
+  public Socket socket() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean isConnected() {
+    return true;
+  }
+
+  @Override
+  public boolean isConnectionPending() {
+    return false;
+  }
+
+  @Override
+  public boolean connect(SocketAddress remote) {
+    return true;
+  }
+
+  @Override
+  public boolean finishConnect() {
+    return true;
+  }
+
+  @Override
+  public SocketAddress getRemoteAddress() {
+    return null;
+  }
+
+  @Override
+  public SocketAddress getLocalAddress() {
+    return null;
+  }
+
+  @Override
+  protected void implCloseSelectableChannel() throws IOException { }
+
+  @Override
+  protected void implConfigureBlocking(boolean block) throws IOException { }
+
+}
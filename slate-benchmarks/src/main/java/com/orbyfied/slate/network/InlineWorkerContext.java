@@ -0,0 +1,52 @@
+package com.orbyfied.slate.network;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * A worker context for driving a connection directly on the benchmark thread,
+ * tasks are run right away and queued frames are never written.
+ */
+public final class InlineWorkerContext extends ConnectionWorkerContext {
+
+  final ConnectionManager manager;
+
+  public InlineWorkerContext(ConnectionManager manager) {
+    this.manager = manager;
+  }
+
+  /**
+   * Create a connection on the given channel which is handled by this context.
+   */
+  public Connection connect(SocketChannel channel) {
+    final Connection connection = new Connection(manager, channel);
+    connection.owner = this;
+    connection.assigned(this);
+    return connection;
+  }
+
+  /**
+   * Read from the socket of the connection until the channel has no more data.
+   */
+  public void readAll(Connection connection, InMemorySocketChannel channel) throws Exception {
+    while (!channel.isDrained()) {
+      connection.readKey(null);
+    }
+  }
+
+  @Override
+  public ConnectionManager manager() {
+    return manager;
+  }
+
+  @Override
+  public void remove(Connection connection) { }
+
+  @Override
+  public void scheduleFlush(Connection connection) { }
+
+  @Override
+  public void execute(Runnable task) {
+    task.run();
+  }
+
+}
@@ -0,0 +1,157 @@
+package com.orbyfied.slate.network;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the read path of a connection manager over loopback sockets, with one
+ * client connection per benchmark thread.
+ *
+ * Every operation writes a batch of frames followed by a frame requesting an
+ * acknowledgement and waits for it, so the score covers reading, framing and
+ * dispatching the batch on the workers. The worker count and type are parameters,
+ * which compares the selector workers against the virtual thread workers. Run with
+ * {@code -prof gc} for the allocation rate and {@code -t} for the amount of clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class LoopbackBenchmark {
+
+  /// The total size of the frames written per operation
+  static final int BATCH_BYTES = 256 * 1024;
+
+  static final short DATA_CHANNEL = 1;
+  static final short ACK_CHANNEL = 2;
+
+  /**
+   * The worker implementation handling the connections.
+   */
+  public enum WorkerType {
+    SELECTOR,
+    VIRTUAL_THREAD
+  }
+
+  @Param({"SELECTOR", "VIRTUAL_THREAD"})
+  WorkerType workerType;
+
+  @Param({"1", "2", "4"})
+  int workers;
+
+  @Param({"SMALL", "MIXED", "LARGE"})
+  FrameSizeDistribution distribution;
+
+  ConnectionManager manager;
+
+  @Setup(Level.Trial)
+  public void startServer() {
+    manager = new ConnectionManager()
+        .compressionThreshold(-1);
+    manager.getPipeline()
+        .handler(DATA_CHANNEL, frame -> { })
+        .handler(ACK_CHANNEL, frame -> frame.connection().send(ACK_CHANNEL, ByteBuffer.allocate(1)));
+
+    if (workerType == WorkerType.VIRTUAL_THREAD) {
+      manager.allocateVirtualThreadWorkers(workers);
+    } else {
+      manager.allocateThreadedWorkers(workers);
+    }
+
+    manager.bind(new InetSocketAddress("127.0.0.1", 0));
+    manager.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void stopServer() {
+    manager.close();
+  }
+
+  /**
+   * A client connection with its pre-encoded batch, owned by a benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class Client {
+
+    SocketChannel channel;
+    ByteBuffer batch;
+    int framesPerBatch;
+
+    final ByteBuffer ack = ByteBuffer.allocate(Connection.HEADER_SIZE + Connection.CHANNEL_SIZE + 1);
+
+    @Setup(Level.Trial)
+    public void connect(LoopbackBenchmark benchmark) throws IOException {
+      channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", benchmark.manager.servicePort()));
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+      final FrameSizeDistribution.EncodedFrames frames =
+          benchmark.distribution.encode(DATA_CHANNEL, BATCH_BYTES, ThreadLocalRandom.current().nextLong());
+      framesPerBatch = frames.frames();
+      batch = ByteBuffer.allocateDirect(frames.buffer().remaining() + Connection.HEADER_SIZE + Connection.CHANNEL_SIZE)
+          .put(frames.buffer())
+          .putInt(Connection.CHANNEL_SIZE)
+          .putShort(ACK_CHANNEL)
+          .flip();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+      channel.close();
+    }
+
+  }
+
+  /**
+   * The frames and bytes sent, reported as rates next to the batch throughput.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Counters {
+    public long frames;
+    public long bytes;
+  }
+
+  @Benchmark
+  public void sendBatch(Client client, Counters counters) throws IOException {
+    final ByteBuffer batch = client.batch.rewind();
+    while (batch.hasRemaining()) {
+      client.channel.write(batch);
+    }
+
+    final ByteBuffer ack = client.ack.clear();
+    while (ack.hasRemaining()) {
+      if (client.channel.read(ack) < 0) {
+        throw new EOFException("Server closed the connection");
+      }
+    }
+
+    counters.frames += client.framesPerBatch;
+    counters.bytes += batch.limit();
+  }
+
+}
@@ -0,0 +1,97 @@
+package com.orbyfied.slate.network;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Connection#readKey} on an in-memory channel, isolating the
+ * framing, slicing and dispatching of frames from the kernel.
+ *
+ * Every operation reads and dispatches one batch of frames. The fragment size limits the
+ * bytes returned per read, so frames arrive in many small reads, or coalesced with as
+ * many frames per read as fit the read buffer. Run with {@code -prof gc} for the
+ * allocation rate per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadPathBenchmark {
+
+  /// The total size of the frames read per operation
+  static final int BATCH_BYTES = 1024 * 1024;
+
+  static final short CHANNEL = 1;
+
+  @Param({"SMALL", "MIXED", "LARGE"})
+  FrameSizeDistribution distribution;
+
+  /// The maximum amount of bytes per read, 0 to coalesce as much as fits the read buffer
+  @Param({"0", "1460", "64"})
+  int fragmentSize;
+
+  ConnectionManager manager;
+  InMemorySocketChannel channel;
+  InlineWorkerContext context;
+  Connection connection;
+
+  long framesDispatched;
+  int framesPerBatch;
+
+  /**
+   * The frames and bytes read, reported as rates next to the batch throughput.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Counters {
+    public long frames;
+    public long bytes;
+    public long reads;
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    manager = new ConnectionManager();
+    manager.getPipeline().handler(CHANNEL, frame -> framesDispatched++);
+
+    final FrameSizeDistribution.EncodedFrames frames = distribution.encode(CHANNEL, BATCH_BYTES, 42);
+    framesPerBatch = frames.frames();
+    channel = new InMemorySocketChannel(frames.buffer(), fragmentSize);
+    context = new InlineWorkerContext(manager);
+    connection = context.connect(channel);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    connection.close();
+    if (framesDispatched % framesPerBatch != 0) {
+      throw new IllegalStateException("Dispatched " + framesDispatched + " frames, not a multiple of the batch of " + framesPerBatch);
+    }
+  }
+
+  @Benchmark
+  public void readBatch(Counters counters) throws Exception {
+    channel.rewind();
+    context.readAll(connection, channel);
+    counters.frames += framesPerBatch;
+    counters.bytes += channel.data.limit();
+    counters.reads += channel.reads();
+  }
+
+}
@@ -1,6 +1,9 @@
 package com.orbyfied.slate.communication;
 
 import com.orbyfied.slate.network.Connection;
+import com.orbyfied.slate.network.MultiplexedStream;
+
+import java.nio.ByteBuffer;
 
 /**
  * Represents a type of communication channel with a target or set of target, potentially holding a lightweight session,
@@ -8,9 +11,116 @@ import com.orbyfied.slate.network.Connection;
  *
  * The underlying path to the endpoint may be stateless, over SXP, indirect, to a relay to be broadcast, across multiple reroutes,
  * load balanced, etc.
+ *
+ * A direct channel is a logical stream multiplexed over a connection, so many channels between the same pair of
+ * nodes share one connection while each has its own flow control and priority, see {@link MultiplexedStream}.
  */
 public class Channel {
 
+  /**
+   * Handles the messages received on a channel.
+   */
+  @FunctionalInterface
+  public interface MessageHandler {
+
+    /**
+     * Handle the given message, the buffer is only valid for the duration of this call.
+     */
+    void handle(Channel channel, ByteBuffer message) throws Exception;
+
+  }
+
+  protected final Connection connection;
+  protected final short id;
+  protected final int priority;
+  protected final MessageHandler handler;
+
+  /// The stream carrying the messages of this channel, set once it was opened
+  protected volatile MultiplexedStream stream;
+
+  /**
+   * Create a channel over the given connection, the stream is opened
+   * by {@link #openStream()} once the channel was fully constructed.
+   */
+  protected Channel(Connection connection, short id, int priority, MessageHandler handler) {
+    this.connection = connection;
+    this.id = id;
+    this.priority = priority;
+    this.handler = handler;
+  }
+
+  /**
+   * Open a channel directly over the given connection, the peer has to open the channel with the same id.
+   *
+   * @param connection The connection.
+   * @param id The id of the channel, which is the channel its frames are sent on.
+   * @param priority The priority of the messages, see {@link MultiplexedStream#PRIORITY_NORMAL}.
+   * @param handler The handler for the received messages.
+   * @return The channel.
+   */
+  public static Channel open(Connection connection, short id, int priority, MessageHandler handler) {
+    final Channel channel = new Channel(connection, id, priority, handler);
+    channel.openStream();
+    return channel;
+  }
+
+  /**
+   * Open the stream of this channel on the connection, messages may be received right away.
+   */
+  protected final void openStream() {
+    if (stream != null) {
+      throw new IllegalStateException("Channel " + id + " is already open");
+    }
+
+    this.stream = connection.multiplexer().open(id, priority, this::received);
+  }
+
+  // Handle a message received on the stream, which may happen before opening it returned
+  private void received(MultiplexedStream stream, ByteBuffer message) throws Exception {
+    this.stream = stream;
+    handler.handle(this, message);
+  }
+
+  public MultiplexedStream stream() {
+    return stream;
+  }
+
+  public Connection connection() {
+    return connection;
+  }
+
+  public short id() {
+    return id;
+  }
+
+  public int priority() {
+    return priority;
+  }
+
+  public boolean isOpen() {
+    final MultiplexedStream stream = this.stream;
+    return stream != null && stream.isOpen() && connection.isOpen();
+  }
+
+  /**
+   * Queue the given message to be sent on this channel. May be called from any thread.
+   *
+   * @param message The message, which must not be modified until it was written.
+   * @return Whether the message was queued, false if the channel is closed or was not opened.
+   */
+  public boolean send(ByteBuffer message) {
+    final MultiplexedStream stream = this.stream;
+    return stream != null && stream.send(message);
+  }
 
+  /**
+   * Close this channel, the connection stays open.
+   */
+  public void close() {
+    final MultiplexedStream stream = this.stream;
+    if (stream != null) {
+      stream.close();
+    }
+  }
 
 }
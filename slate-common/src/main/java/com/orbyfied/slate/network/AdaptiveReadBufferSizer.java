@@ -0,0 +1,69 @@
+package com.orbyfied.slate.network;
+
+/**
+ * Adapts the capacity of the read buffer of a connection to the amount of data
+ * received from the socket, similar to Netty's AdaptiveRecvByteBufAllocator.
+ *
+ * Capacities are powers of two between the configured bounds. The capacity grows
+ * as soon as a single read fills the buffer, and shrinks once two consecutive read
+ * passes would have fit the next smaller size.
+ *
+ * @implNote Not thread safe, owned by a single connection.
+ */
+public final class AdaptiveReadBufferSizer {
+
+  public static final int DEFAULT_MINIMUM = 512;
+  public static final int DEFAULT_INITIAL = 2048;
+  public static final int DEFAULT_MAXIMUM = 64 * 1024;
+
+  final int minimumShift;
+  final int maximumShift;
+
+  int shift;                // log2 of the current capacity
+  boolean decreaseNext;     // whether the previous pass was small enough to shrink
+
+  public AdaptiveReadBufferSizer(int minimum, int initial, int maximum) {
+    if (minimum < 2 || minimum > initial || initial > maximum) {
+      throw new IllegalArgumentException("Invalid read buffer sizes, minimum(" + minimum + ") initial(" + initial + ") maximum(" + maximum + ")");
+    }
+
+    this.minimumShift = shiftFor(minimum);
+    this.maximumShift = shiftFor(maximum);
+    this.shift = shiftFor(initial);
+  }
+
+  // Round up to the next power of two
+  static int shiftFor(int capacity) {
+    return 32 - Integer.numberOfLeadingZeros(capacity - 1);
+  }
+
+  /**
+   * The capacity which should be used for the next read buffer.
+   */
+  public int capacity() {
+    return 1 << shift;
+  }
+
+  /// Called when a single read filled the entire read buffer
+  void readFilledBuffer() {
+    decreaseNext = false;
+    if (shift < maximumShift) {
+      shift++;
+    }
+  }
+
+  /// Called with the total amount of bytes read once the socket was drained
+  void readPassCompleted(int bytesRead) {
+    if (shift > minimumShift && bytesRead <= 1 << (shift - 1)) {
+      if (decreaseNext) {
+        shift--;
+        decreaseNext = false;
+      } else {
+        decreaseNext = true;
+      }
+    } else {
+      decreaseNext = false;
+    }
+  }
+
+}
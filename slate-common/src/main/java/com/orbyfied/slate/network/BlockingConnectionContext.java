@@ -0,0 +1,177 @@
+package com.orbyfied.slate.network;
+
+import com.orbyfied.slate.project.TODO;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Handles a single connection with blocking socket IO on two dedicated threads, which
+ * is intended to be used with virtual threads. The reader thread reads and processes
+ * frames with the same framing semantics as the selector based workers and runs the
+ * tasks submitted for the connection, the writer thread flushes the queued frames.
+ *
+ * The buffer pools, decode budget and load counters are shared with the worker which
+ * created this context, the compression contexts belong to the connection. The worker
+ * checks the connection for idleness on its timing wheel.
+ *
+ * Tasks are run by the reader between reads, so a task submitted while the reader is
+ * blocked on an idle socket runs once data arrives or the channel is closed.
+ */
+public final class BlockingConnectionContext extends ConnectionWorkerContext {
+
+  final ConnectionWorker worker;
+  final Connection connection;
+
+  /// Tasks submitted to be run on the reader thread
+  private final ConcurrentLinkedQueue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+
+  /// The reused gathering write state, only accessed by the writer thread
+  private final WriteBatch writeBatch = new WriteBatch(ConnectionWorker.MAX_GATHERED_FRAMES);
+
+  private Thread readerThread;
+  private Thread writerThread;
+
+  public BlockingConnectionContext(ConnectionWorker worker, Connection connection) {
+    super(worker);
+    this.worker = worker;
+    this.connection = connection;
+  }
+
+  /**
+   * Start handling the connection on threads created by the given factory.
+   *
+   * @param threadFactory The factory for the reader and writer thread.
+   */
+  public void start(ThreadFactory threadFactory) {
+    // the writer has to exist before the reader can schedule a flush
+    this.writerThread = threadFactory.newThread(this::runWriter);
+    this.readerThread = threadFactory.newThread(this::runReader);
+
+    // the connection is assigned before the threads start, so it can be
+    // used as soon as it was handed out, e.g. by a completed connect
+    connection.owner = this;
+    connection.assigned(this);
+    try {
+      connection.getChannel().configureBlocking(true);
+    } catch (IOException ex) {
+      TODO.todoErrorHandling("An exception occurred while setting up connection " + connection.getChannel(), ex);
+      connection.close();
+      return;
+    }
+
+    worker.execute(() -> worker.watch(connection));
+    writerThread.start();
+    readerThread.start();
+  }
+
+  @Override
+  public ConnectionManager manager() {
+    return worker.manager();
+  }
+
+  @Override
+  public void remove(Connection connection) {
+    worker.connectionCount.decrementAndGet();
+    worker.execute(() -> worker.unwatch(connection));
+
+    // the writer stops once it notices the connection was closed, wait for it
+    // so the queued frames are not released while it is writing them
+    LockSupport.unpark(writerThread);
+    if (Thread.currentThread() != writerThread) {
+      boolean interrupted = false;
+      while (writerThread.isAlive()) {
+        try {
+          writerThread.join();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    compression.end();
+  }
+
+  @Override
+  public void scheduleFlush(Connection connection) {
+    // a writer waiting for the deadline of delayed frames only has to be woken once they are full
+    if (connection.flushScheduled.compareAndSet(false, true) || connection.coalescer.isFull()) {
+      LockSupport.unpark(writerThread);
+    }
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    taskQueue.add(task);
+    LockSupport.unpark(readerThread);
+  }
+
+  // Read and process frames until the connection is closed, parking while reading is suspended
+  private void runReader() {
+    try {
+      while (connection.isOpen()) {
+        runSubmittedTasks();
+        if (connection.readSuspension != 0) {
+          // resumed by a submitted task
+          LockSupport.park(this);
+          continue;
+        }
+
+        connection.readKey(null);
+      }
+    } catch (Exception ex) {
+      // the channel is closed when the connection is closed from another thread
+      if (connection.getChannel().isOpen()) {
+        TODO.todoErrorHandling("An exception occurred while reading from connection " + connection.getChannel(), ex);
+      }
+    } finally {
+      connection.close();
+    }
+  }
+
+  // Write the queued frames whenever a flush is scheduled until the connection is closed
+  private void runWriter() {
+    while (connection.isOpen()) {
+      if (!connection.flushScheduled.get()) {
+        LockSupport.park(this);
+        continue;
+      }
+
+      final long delay = connection.coalescer.nanosUntilDue(System.nanoTime());
+      if (delay > 0) {
+        LockSupport.parkNanos(this, delay);
+        continue;
+      }
+
+      try {
+        connection.flushWrites(writeBatch);
+      } catch (Exception ex) {
+        if (connection.getChannel().isOpen()) {
+          TODO.todoErrorHandling("An exception occurred while writing to connection " + connection.getChannel(), ex);
+        }
+
+        // the reader fails on the closed channel and closes the connection
+        connection.closeChannel();
+        return;
+      }
+    }
+  }
+
+  private void runSubmittedTasks() {
+    Runnable task;
+    while ((task = taskQueue.poll()) != null) {
+      try {
+        task.run();
+      } catch (Exception ex) {
+        TODO.todoErrorHandling("An exception occurred while running a task for connection " + connection.getChannel(), ex);
+      }
+    }
+  }
+
+}
@@ -2,32 +2,65 @@ package com.orbyfied.slate.network;
 
 import com.orbyfied.slate.network.meta.Trust;
 import com.orbyfied.slate.project.TODO;
-import com.orbyfied.slate.util.buffer.ByteBuffers;
+import com.orbyfied.slate.util.buffer.ByteBufferProvider;
+import com.orbyfied.slate.util.buffer.RefCountedByteBuffer;
+import com.orbyfied.slate.util.concurrent.SpscArrayQueue;
 import lombok.Getter;
 
 import java.io.IOException;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
 
 /**
  * Represents a direct TCP connection between two endpoints on the network, with
  * slate communication and security conventions provided.
  *
- * Packets sent over this connection must **always** be encoded as [length: int32][packet],
- * as the connection object will handle partial packet transmissions.
+ * Packets sent over this connection must **always** be encoded as [length: int32][channel: int16][packet],
+ * as the connection object will handle partial packet transmissions. Outgoing frames are
+ * queued per connection and written by the worker using gathering writes. Completed incoming
+ * frames are decoded and dispatched to the handler of their channel by the {@link FramePipeline}.
  *
  * This connection may handle special, direct communication control such
  * as base authorization and encryption.
  *
- * Connections must remain handled by the same thread for their lifetime.
+ * A connection is handled by one worker thread at a time. It may be migrated to another
+ * worker between frames, see {@link ConnectionWorker#migrate(Connection, ConnectionWorker)},
+ * so worker specific work for a connection must be submitted through its current worker
+ * context. Only the processing of completed frames may be handed to the handler executor
+ * of the manager, which processes the frames of a connection one at a time and in order.
  */
 public class Connection {
 
   public static final int MAX_FRAME_SIZE = 1024 * 1024 * 128; // 128 MB
   public static final int HEADER_SIZE = 4; // [length+flags: int32]
+  public static final int CHANNEL_SIZE = 2; // [channel: int16], the first field of every frame
+  public static final int CALL_ID_SIZE = 8; // [call id: int64], following the channel id of calls and responses
+
+  /// The channel reserved for keepalive frames, which are consumed by the connection and never dispatched
+  public static final short KEEPALIVE_CHANNEL = -1;
+  /// The channel reserved for the flow control of multiplexed streams, consumed by the connection and never dispatched
+  public static final short STREAM_CONTROL_CHANNEL = -2;
+
+  /// The maximum amount of reads from the socket per readable event, so a connection which
+  /// receives data continuously can not starve the other connections of its worker
+  public static final int MAX_READS_PER_PASS = 16;
+
+  /* Reasons for suspending reads from the socket */
+  protected static final int SUSPEND_HANDLER_QUEUE = 1; // The handler executor fell behind
+  protected static final int SUSPEND_DECODE_BUDGET = 2; // Too much memory is held by decode buffers
+  protected static final int SUSPEND_RATE_LIMIT = 4;    // The peer exceeded the rate limits of its trust level
 
   /// The connection manager instance
   private final ConnectionManager manager;
@@ -42,37 +75,390 @@ public class Connection {
   private final @Getter SocketChannel channel;
 
   /// The context of the worker responsible for handling this connection.
-  private @Getter ConnectionWorkerContext workerContext;
+  private volatile @Getter ConnectionWorkerContext workerContext;
+
+  /// The worker this connection is registered with, null while it is migrating between workers
+  volatile ConnectionWorkerContext owner;
 
-  // Reused/pooled read buffer
+  /// The selection key of the channel on the selector of the worker
+  protected SelectionKey selectionKey;
+
+  // Pooled read buffer, only held while a partial frame is buffered or a read is in progress
   protected ByteBuffer socketReadBuffer;
+  // The reference held by this connection to the read buffer, shared with the frames sliced from it
+  protected RefCountedByteBuffer socketReadBufferRef;
+  // Read-only view of the read buffer from which incoming frames are sliced
+  protected ByteBuffer socketReadView;
+  // The capacity the current read buffer was requested with
+  protected int socketReadBufferCapacity;
+  // Adapts the capacity of the read buffer to the amount of data received
+  protected final AdaptiveReadBufferSizer readBufferSizer;
 
   // Information about the frame currently being read
   protected ConnectionFrame incompleteFrame;
 
+  // The reasons reading is currently suspended for, only accessed by the worker
+  protected int readSuspension = 0;
+
+  // Completed frames waiting to be processed by the handler executor, produced by the worker
+  protected SpscArrayQueue<ConnectionFrame> handlerQueue;
+  // Whether a task draining the handler queue is scheduled or running
+  final AtomicBoolean draining = new AtomicBoolean(false);
+  // Whether reading was suspended because the handler queue filled up
+  final AtomicBoolean handlerQueueFull = new AtomicBoolean(false);
+  final Runnable drainHandlerQueueTask = this::drainHandlerQueue;
+
+  // The total size of the decode buffers currently held by frames of this connection,
+  // including the buffers streams reassemble their messages in
+  final AtomicLong decodeBytesOutstanding = new AtomicLong(0);
+  // The part of the outstanding decode bytes held by streams reassembling messages
+  final AtomicLong streamDecodeBytes = new AtomicLong(0);
+  // The size of the decode buffer reading is suspended for until enough memory is released
+  protected int awaitedDecodeSize;
+  // Whether the read buffer is currently being processed, resuming reads must not reenter it
+  private boolean processingBuffered;
+
+  // The frame currently being streamed to a streaming handler and the amount of its payload left
+  private ConnectionFrame streamingFrame;
+  private int streamRemaining;
+  // The abort event of a streamed frame for the handler executor, delivered after the queued frames
+  private volatile ConnectionFrame pendingStreamAbort;
+  final Runnable resumeAfterHandlerQueueTask = () -> resumeReading(SUSPEND_HANDLER_QUEUE);
+
+  // The time of the last read from and write to the socket, for detecting idle connections
+  volatile long lastReadNanos;
+  volatile long lastWriteNanos;
+  // The idleness check of this connection, scheduled on the timer wheel
+  final HashedTimingWheel.Timeout heartbeat = new HashedTimingWheel.Timeout() {
+    @Override
+    protected void expired(long now) {
+      heartbeatExpired(now);
+    }
+  };
+  // The timer wheel of the worker watching this connection, the timeouts are only accessed by that worker
+  HashedTimingWheel timerWheel;
+
+  // The token buckets enforcing the rate limits of the trust level, null if it has none, only accessed by the worker
+  protected TokenBucket frameRateLimit;
+  protected TokenBucket byteRateLimit;
+  // Lifts the rate limit suspension once the buckets refilled, scheduled on the timer wheel
+  final HashedTimingWheel.Timeout rateLimitResume = new HashedTimingWheel.Timeout() {
+    @Override
+    protected void expired(long now) {
+      rateLimitExpired();
+    }
+  };
+  private volatile long rateLimitResumeNanos;
+  private final Runnable scheduleRateLimitResumeTask = this::scheduleRateLimitResume0;
+  private final Runnable resumeAfterRateLimitTask = () -> resumeReading(SUSPEND_RATE_LIMIT);
+
+  /// The traffic counters of this connection
+  private final @Getter ConnectionMetrics metrics = new ConnectionMetrics();
+  // The amount of bytes read at the last rebalancing, only accessed by the worker
+  long rebalanceSampleBytes;
+
+  // Frames submitted to be sent, may be appended to by any thread
+  protected final ConcurrentLinkedQueue<OutboundFrame> sendQueue = new ConcurrentLinkedQueue<>();
+  // Frames which were left (partially) unwritten by the last flush, only accessed by the worker
+  protected ArrayDeque<OutboundFrame> unwrittenFrames;
+  // Whether this connection is queued to be flushed by the worker
+  final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+  // Whether OP_WRITE is currently set on the selection key
+  protected boolean awaitingWritable = false;
+  // Decides when the queued frames are written, see FlushPolicy
+  final WriteCoalescer coalescer;
+
   /* Connection authorization state */
-  protected Trust trust = Trust.INTERNAL;
+  protected @Getter Trust trust = Trust.INTERNAL;
+
+  /// The pipeline incoming frames are dispatched through
+  private volatile @Getter FramePipeline pipeline;
+
+  /// The logical streams on the channels of this connection, created on first use
+  private volatile StreamMultiplexer multiplexer;
+
+  /// The calls made on this connection which are waiting for their response
+  final PendingCallTable calls = new PendingCallTable();
+  private final AtomicLong nextCallId = new AtomicLong(0);
 
   Connection(ConnectionManager manager, SocketChannel channel) {
     this.manager = manager;
     this.creationTime = System.currentTimeMillis();
+    this.lastReadNanos = this.lastWriteNanos = System.nanoTime();
     this.channel = channel;
     this.open = true;
+    this.readBufferSizer = manager.newReadBufferSizer();
+    this.pipeline = manager.getPipeline();
+    this.coalescer = new WriteCoalescer(manager.getFlushPolicy());
+    manager.connectionOpened(this);
+  }
+
+  /**
+   * Set the pipeline incoming frames of this connection are dispatched through,
+   * by default this is the pipeline of the connection manager.
+   */
+  public Connection pipeline(FramePipeline pipeline) {
+    this.pipeline = pipeline;
+    return this;
+  }
+
+  /**
+   * Set the policy deciding when the frames sent on this connection are written,
+   * by default this is the policy of the connection manager.
+   */
+  public Connection flushPolicy(FlushPolicy policy) {
+    coalescer.policy = policy;
+    if (!policy.isDelayed()) {
+      scheduleFlush(); // frames may be waiting for a deadline
+    }
+
+    return this;
+  }
+
+  public FlushPolicy getFlushPolicy() {
+    return coalescer.policy;
+  }
+
+  /**
+   * Get the multiplexer of the logical streams sharing this connection, which is
+   * consulted for received frames before the pipeline.
+   */
+  public StreamMultiplexer multiplexer() {
+    StreamMultiplexer multiplexer = this.multiplexer;
+    if (multiplexer == null) {
+      synchronized (this) {
+        multiplexer = this.multiplexer;
+        if (multiplexer == null) {
+          this.multiplexer = multiplexer = new StreamMultiplexer(this);
+        }
+      }
+    }
+
+    return multiplexer;
+  }
+
+  /**
+   * Set the trust level of this connection, which limits the size and rate of the
+   * frames read from it. Applied on the worker handling this connection.
+   */
+  public Connection trust(Trust trust) {
+    executeOnOwner(() -> applyTrust(trust));
+    return this;
+  }
+
+  // Replace the limits of the current trust level, starting with full buckets
+  private void applyTrust(Trust trust) {
+    final long now = System.nanoTime();
+    final long burstMillis = Math.max(1, trust.getBurstMillis());
+    this.trust = trust;
+    this.frameRateLimit = trust.getMaxFramesPerSecond() > 0 ?
+        new TokenBucket(trust.getMaxFramesPerSecond(), Math.max(1, trust.getMaxFramesPerSecond() * burstMillis / 1000), now) : null;
+    this.byteRateLimit = trust.getMaxBytesPerSecond() > 0 ?
+        new TokenBucket(trust.getMaxBytesPerSecond(), Math.max(1, trust.getMaxBytesPerSecond() * burstMillis / 1000), now) : null;
+    resumeReading(SUSPEND_RATE_LIMIT);
+  }
+
+  /**
+   * Take a snapshot of the traffic counters of this connection.
+   */
+  public ConnectionMetrics.Snapshot metricsSnapshot() {
+    SocketAddress remoteAddress = null;
+    try {
+      remoteAddress = channel.getRemoteAddress();
+    } catch (IOException ignored) {
+      // closed
+    }
+
+    return new ConnectionMetrics.Snapshot(remoteAddress,
+        metrics.bytesIn(), metrics.bytesOut(),
+        metrics.framesIn(), metrics.framesOut(),
+        metrics.reads.get(), metrics.writes.get(),
+        decodeBytesOutstanding.get());
   }
 
   // Called when this connection is assigned a worker
   protected void assigned(ConnectionWorkerContext context) {
     this.workerContext = context;
+    if (!sendQueue.isEmpty()) {
+      context.scheduleFlush(this);
+    }
+  }
+
+  /// Called by the source worker of a migration before this connection is handed to the target worker
+  void migrated(ConnectionWorkerContext context) {
+    this.workerContext = context;
+  }
+
+  /// Schedule the next idleness check on the wheel of the worker watching this connection,
+  /// which is due once either the idle timeout or the keepalive interval passed
+  void scheduleHeartbeat() {
+    final HashedTimingWheel wheel = timerWheel;
+    final long idleTimeout = manager.getIdleTimeoutNanos();
+    final long keepaliveInterval = manager.getKeepaliveIntervalNanos();
+    if (wheel == null || !open || (idleTimeout <= 0 && keepaliveInterval <= 0)) {
+      return;
+    }
+
+    long deadline = Long.MAX_VALUE;
+    if (idleTimeout > 0) {
+      deadline = lastReadNanos + idleTimeout;
+    }
+
+    if (keepaliveInterval > 0) {
+      deadline = Math.min(deadline, lastWriteNanos + keepaliveInterval);
+    }
+
+    wheel.schedule(heartbeat, deadline);
+  }
+
+  // Close this connection if nothing was received for the idle timeout and send
+  // a keepalive frame if nothing was sent for the keepalive interval
+  private void heartbeatExpired(long now) {
+    if (!open) {
+      return;
+    }
+
+    final long idleTimeout = manager.getIdleTimeoutNanos();
+    if (idleTimeout > 0 && now - lastReadNanos >= idleTimeout) {
+      TODO.todoEventLogging("Connection", "WARN: Received nothing for " + (now - lastReadNanos) / 1_000_000 + "ms, closing idle connection " + channel);
+      if (workerContext == workerContext.sharedContext) {
+        close();
+      } else {
+        // handled on its own thread, which closes the connection once its read fails
+        closeChannel();
+      }
+
+      return;
+    }
+
+    final long keepaliveInterval = manager.getKeepaliveIntervalNanos();
+    if (keepaliveInterval > 0 && now - lastWriteNanos >= keepaliveInterval) {
+      lastWriteNanos = now; // do not send another one before it was written
+      send(KEEPALIVE_CHANNEL, ByteBuffer.allocate(0));
+    }
+
+    scheduleHeartbeat();
+  }
+
+  /// The interest set to register the channel with, derived from the state of this connection
+  int interestOps() {
+    return (readSuspension == 0 ? SelectionKey.OP_READ : 0) | (awaitingWritable ? SelectionKey.OP_WRITE : 0);
+  }
+
+  /// Whether this connection may currently be migrated to another worker, which is the
+  /// case between frames while it is not waiting on state of its current worker
+  boolean canMigrate() {
+    return open && owner == workerContext && incompleteFrame == null && streamingFrame == null &&
+        (readSuspension & (SUSPEND_DECODE_BUDGET | SUSPEND_RATE_LIMIT)) == 0;
+  }
+
+  /// Whether frames are queued or were left partially written
+  boolean hasPendingWrites() {
+    return !sendQueue.isEmpty() || (unwrittenFrames != null && !unwrittenFrames.isEmpty());
+  }
+
+  /// Run the given task on the thread of the worker handling this connection, following
+  /// the connection if it was migrated before the task ran. May be called from any thread.
+  void executeOnOwner(Runnable task) {
+    final ConnectionWorkerContext context = workerContext;
+    context.execute(() -> {
+      if (workerContext != context) {
+        executeOnOwner(task);
+        return;
+      }
+
+      task.run();
+    });
   }
 
   private ByteBuffer ensureReadBuffer() {
-    return socketReadBuffer != null ? socketReadBuffer : (socketReadBuffer = workerContext.readBufferProvider().acquire(2048));
+    return socketReadBuffer != null ? socketReadBuffer : acquireReadBuffer(readBufferSizer.capacity());
+  }
+
+  private ByteBuffer acquireReadBuffer(int capacity) {
+    final ByteBuffer buf = workerContext.readBufferProvider().acquire(capacity).clear();
+    socketReadBufferCapacity = capacity;
+    socketReadBuffer = buf;
+    socketReadBufferRef = null;
+    socketReadView = null;
+    return buf;
+  }
+
+  // Add a reference to the read buffer for a frame sliced from it, the reference
+  // and read-only view are only created once the first frame is sliced
+  private RefCountedByteBuffer retainReadBuffer() {
+    if (socketReadBufferRef == null) {
+      socketReadBufferRef = new RefCountedByteBuffer(socketReadBuffer, workerContext.readBufferProvider());
+      socketReadView = socketReadBuffer.asReadOnlyBuffer().clear();
+    }
+
+    return socketReadBufferRef.retain();
+  }
+
+  // Whether frames sliced from the read buffer are still referenced
+  private boolean isReadBufferShared() {
+    return socketReadBufferRef != null && socketReadBufferRef.refCount() > 1;
+  }
+
+  // Release the reference of this connection to the read buffer
+  private void releaseReadBuffer() {
+    if (socketReadBufferRef != null) {
+      socketReadBufferRef.release();
+    } else if (socketReadBuffer != null) {
+      workerContext.readBufferProvider().release(socketReadBuffer);
+    }
+
+    socketReadBuffer = null;
+    socketReadBufferRef = null;
+    socketReadView = null;
+  }
+
+  /**
+   * Close this connection, may be called from any thread. Frames which
+   * were queued but not written yet are dropped.
+   */
+  public void disconnect() {
+    closeChannel();
+    if (workerContext == null) {
+      close();
+      return;
+    }
+
+    executeOnOwner(this::close);
   }
 
   /**
    * Close this connection, release the resources and unregister the instance.
    */
-  private void close() {
+  void close() {
+    if (!open) {
+      return; // already closed
+    }
+
+    closeChannel();
+    this.open = false;
+    manager.connectionClosed(this);
+    if (workerContext != null) {
+      releaseReadBuffer();
+      if (incompleteFrame != null) {
+        incompleteFrame.discard();
+      }
+
+      abortStream();
+
+      workerContext.remove(this);
+    }
+
+    releaseQueuedFrames();
+    if (multiplexer != null) {
+      multiplexer.close();
+    }
+
+    calls.drain(call -> call.failed(new ClosedChannelException()));
+  }
+
+  // Close the socket, may be called from any thread
+  void closeChannel() {
     try {
       if (channel.isOpen()) {
         channel.close();
@@ -80,126 +466,902 @@ public class Connection {
     } catch (IOException ex) {
       TODO.todoErrorHandling(ex);
     }
+  }
 
-    this.open = false;
-    if (workerContext != null) {
-      workerContext.readBufferProvider().release(socketReadBuffer);
-      if (incompleteFrame != null) {
-        incompleteFrame.discard();
+  // Drop all frames which are still waiting to be written
+  private void releaseQueuedFrames() {
+    OutboundFrame frame;
+    if (unwrittenFrames != null) {
+      while ((frame = unwrittenFrames.pollFirst()) != null) {
+        frame.release();
       }
+    }
 
-      workerContext.remove(this);
+    while ((frame = sendQueue.poll()) != null) {
+      frame.release();
     }
   }
 
+  /**
+   * Queue the given payload to be sent as a single frame on the given channel. The payload
+   * is written from its position to its limit and must not be modified until it was written.
+   *
+   * This may be called from any thread, the frame will be written by the worker
+   * responsible for this connection.
+   *
+   * @param channel The channel id.
+   * @param payload The payload buffer.
+   * @return Whether the frame was queued, false if the connection is closed.
+   */
+  public boolean send(short channel, ByteBuffer payload) {
+    return send(channel, payload, null);
+  }
 
+  /**
+   * Queue the given payload to be sent as a single frame on the given channel, releasing
+   * the buffer to the given provider once it was written or dropped.
+   *
+   * @param channel The channel id.
+   * @param payload The payload buffer.
+   * @param owner The provider owning the payload buffer, may be null.
+   * @return Whether the frame was queued, false if the connection is closed.
+   * @see #send(short, ByteBuffer)
+   */
+  public boolean send(short channel, ByteBuffer payload, ByteBufferProvider owner) {
+    if (payload.remaining() > MAX_FRAME_SIZE - CHANNEL_SIZE) {
+      throw new IllegalArgumentException("Frame payload of size " + payload.remaining() + " exceeds the maximum frame size");
+    }
 
-  /// Called by the {@link ConnectionManager} once a readable key was received for this channel
-  protected final void readKey(SelectionKey key) throws IOException {
-    ByteBuffer buf = ensureReadBuffer().clear();
+    return enqueue(new OutboundFrame(channel, payload, 0, owner));
+  }
 
-    int readState = 0; // enum: [ANY, FINISHED, INCOMPLETE_HEADER]
-    boolean positionedAtFrameHeader = false;
-    while (true) {
-      if ((readState != 1 && !positionedAtFrameHeader) || readState == 2) {
-        // if the read hasnt finished yet, read from the channel
-        int pos = buf.position(); // store read position
-        int read = channel.read(buf.limit(buf.capacity()));
-        if (read < 0) {
-          TODO.todoEventLogging("Connection", "WARN: Peer disconnected, read status " + read + " from socket");
-          close();
+  /**
+   * Send the given payload as a call on the given channel, the handler on the other end
+   * answers it with {@link #respond(ConnectionFrame, ByteBuffer)}. The response is passed
+   * to the given call on the thread dispatching the frames of this connection, responses
+   * are not dispatched through the pipeline. May be called from any thread.
+   *
+   * The timeout is checked by the worker on its timing wheel, so it is accurate to a tick.
+   *
+   * @param channel The channel id.
+   * @param payload The payload buffer, which must not be modified until it was written.
+   * @param timeout The time to wait for the response, 0 to wait until the connection is closed.
+   * @param unit The unit of the timeout.
+   * @param call The call, which may not have been made before.
+   * @return The call.
+   */
+  public <C extends PendingCall> C call(short channel, ByteBuffer payload, long timeout, TimeUnit unit, C call) {
+    if (payload.remaining() > MAX_FRAME_SIZE - CHANNEL_SIZE - CALL_ID_SIZE) {
+      throw new IllegalArgumentException("Frame payload of size " + payload.remaining() + " exceeds the maximum frame size");
+    }
+
+    final ConnectionWorkerContext context = workerContext;
+    if (context == null) {
+      throw new IllegalStateException("The connection is not handled by a worker yet");
+    }
+
+    long id;
+    do {
+      id = nextCallId.incrementAndGet() & ~ConnectionFrame.RESPONSE_BIT;
+    } while (id == 0);
+
+    // registered before sending, the response may arrive right after the request was written
+    call.connection = this;
+    call.id = id;
+    calls.put(id, call);
+    if (timeout > 0) {
+      context.scheduleTimeout(call, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    if (!enqueue(new OutboundFrame(channel, payload, ConnectionFrame.CALL, null, id)) && calls.remove(id, call)) {
+      call.failed(new ClosedChannelException());
+    }
+
+    return call;
+  }
+
+  /**
+   * Send the given payload as a call on the given channel, see
+   * {@link #call(short, ByteBuffer, long, TimeUnit, PendingCall)}.
+   *
+   * @return The future completed with the response frame, which is retained
+   *         for the future and has to be discarded once it was consumed.
+   */
+  public CompletableFuture<ConnectionFrame> call(short channel, ByteBuffer payload, long timeout, TimeUnit unit) {
+    return call(channel, payload, timeout, unit, new PendingCall.FutureCall()).future;
+  }
+
+  /**
+   * Send the given payload as the response to the given call received on this connection.
+   * May be called from any thread, also after the call frame was discarded.
+   *
+   * @param call The received call frame.
+   * @param payload The payload buffer, which must not be modified until it was written.
+   * @return Whether the frame was queued, false if the connection is closed.
+   */
+  public boolean respond(ConnectionFrame call, ByteBuffer payload) {
+    if (!call.isCall()) {
+      throw new IllegalArgumentException("Frame " + call + " is not a call");
+    }
+
+    if (payload.remaining() > MAX_FRAME_SIZE - CHANNEL_SIZE - CALL_ID_SIZE) {
+      throw new IllegalArgumentException("Frame payload of size " + payload.remaining() + " exceeds the maximum frame size");
+    }
+
+    return enqueue(new OutboundFrame(call.channel, payload, ConnectionFrame.CALL, null, call.callId | ConnectionFrame.RESPONSE_BIT));
+  }
+
+  // Queue the given frame and make sure the worker is going to flush it
+  final boolean enqueue(OutboundFrame frame) {
+    if (!open) {
+      frame.release();
+      return false;
+    }
+
+    sendQueue.add(frame);
+    if (!open) {
+      // closed concurrently, the worker may have missed the frame
+      releaseQueuedFrames();
+      return false;
+    }
+
+    queued(frame.size);
+    return true;
+  }
+
+  /// Account the given amount of queued bytes and make sure the worker is going to
+  /// write them according to the flush policy, may be called from any thread
+  void queued(int size) {
+    coalescer.queued(size);
+    final ConnectionWorkerContext context = workerContext;
+    if (context != null && !(coalescer.policy.immediate && context.flushNow(this))) {
+      context.scheduleFlush(this);
+    }
+  }
+
+  /// Make sure the worker is going to flush this connection, may be called from any thread
+  void scheduleFlush() {
+    final ConnectionWorkerContext context = workerContext;
+    if (context != null) {
+      context.scheduleFlush(this);
+    }
+  }
+
+  /// Called by the worker to write as many of the queued frames as the socket accepts,
+  /// using gathering writes to write multiple frames per system call
+  protected final void flushWrites(WriteBatch batch) throws IOException {
+    flushScheduled.set(false);
+    coalescer.flushing();
+    if (!open) {
+      return;
+    }
+
+    try {
+      while (true) {
+        // collect the frames to write, previously unwritten frames first
+        OutboundFrame frame;
+        while (!batch.isFull() && (frame = pollNextFrame(batch)) != null) {
+          if (!frame.prepared) {
+            prepareFrame(frame);
+          }
+
+          batch.add(frame);
+        }
+
+        final int frameCount = batch.frameCount;
+        if (frameCount == 0) {
+          setAwaitingWritable(false);
           return;
         }
 
-        if (buf.position() - pos == 0) {
-          if (incompleteFrame == null) {
-            return; // early exit, no more frames left to read
+        final long written;
+        try {
+          written = channel.write(batch.buffers, 0, frameCount * 2);
+        } catch (IOException ex) {
+          for (int i = 0; i < frameCount; i++) {
+            batch.frames[i].release();
           }
 
-          readState = 1; // FINISHED
-        } else {
-          readState = 0; // ANY
+          throw ex;
+        }
+
+        // release written frames and put back the rest in order
+        int i = 0;
+        for (; i < frameCount && batch.isWritten(i); i++) {
+          workerContext.metrics().recordFrameOut(batch.frames[i].size);
+          batch.frames[i].release();
+        }
+
+        if (written > 0) {
+          lastWriteNanos = System.nanoTime();
         }
 
-        // 'flip' buffer to ready for read
-        buf.limit(buf.position()).position(pos);
-      } else if (readState == 1 && !positionedAtFrameHeader) {
+        metrics.recordWrite(written, i);
+        workerContext.metrics().recordWrite(written);
+
+        if (i < frameCount) {
+          if (unwrittenFrames == null) {
+            unwrittenFrames = new ArrayDeque<>();
+          }
+
+          for (int j = frameCount - 1; j >= i; j--) {
+            batch.unwritten(j);
+            unwrittenFrames.addFirst(batch.frames[j]);
+          }
+
+          // partial write, wait for the socket to become writable again
+          setAwaitingWritable(true);
+          return;
+        }
+
+        batch.clear();
+      }
+    } finally {
+      batch.clear();
+    }
+  }
+
+  // Compress the payload if it exceeds the threshold, this is done
+  // on the worker as it owns the compression contexts
+  private void prepareFrame(OutboundFrame frame) {
+    final int threshold = manager.getCompressionThreshold();
+    // frames large enough to be streamed are not compressed, as compressed frames are not streamed
+    if (threshold >= 0 && frame.size >= threshold && frame.size < manager.getStreamingThreshold() &&
+        (frame.flags & ConnectionFrame.COMPRESSED) == 0) {
+      final ByteBufferProvider provider = workerContext.decodeBufferProvider();
+      final ByteBuffer compressed = workerContext.compression().compress(frame.payload, provider);
+      if (compressed != null) {
+        frame.replacePayload(compressed, provider, ConnectionFrame.COMPRESSED);
+      }
+    }
+
+    frame.prepared = true;
+  }
+
+  private OutboundFrame pollNextFrame(WriteBatch batch) {
+    if (unwrittenFrames != null && !unwrittenFrames.isEmpty()) {
+      return unwrittenFrames.pollFirst();
+    }
+
+    final OutboundFrame frame = sendQueue.poll();
+    if (frame != null) {
+      return frame;
+    }
+
+    // chunks of streams are cut as they are written, so frames queued in the meantime go first
+    final StreamMultiplexer multiplexer = this.multiplexer;
+    return multiplexer != null && batch.frameCount < StreamMultiplexer.MAX_CHUNKS_PER_WRITE ? multiplexer.pollChunk() : null;
+  }
+
+  private void setAwaitingWritable(boolean awaiting) {
+    if (awaitingWritable == awaiting || selectionKey == null || !selectionKey.isValid()) {
+      return;
+    }
+
+    awaitingWritable = awaiting;
+    selectionKey.interestOps(awaiting ?
+        selectionKey.interestOps() | SelectionKey.OP_WRITE :
+        selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+  }
+
+
+
+  /// Called by the worker once a readable key was received for this channel
+  protected final void readKey(SelectionKey key) throws IOException {
+    // between reads, the unconsumed data is held from 0 to the position of the read buffer
+    ByteBuffer buf = ensureReadBuffer();
+    int totalRead = 0;
+    int reads = 0;
+    while (true) {
+      final int space = buf.remaining();
+      final int read = channel.read(buf);
+      if (read < 0) {
+        TODO.todoEventLogging("Connection", "WARN: Peer disconnected, read status " + read + " from socket");
+        close();
         return;
       }
 
-      // starting a new frame, allocate buffer etc
-      if (incompleteFrame == null) {
-        if (buf.remaining() < HEADER_SIZE) {
-          // partial header,
-          if (readState == 1) {
-            TODO.todoEventLogging("Connection", "Partial header: remaining(" + buf.remaining() + ") limit(" + buf.limit() + ")");
-            return;
-          }
+      if (totalRead == 0 && read > 0) {
+        lastReadNanos = System.nanoTime();
+      }
+
+      totalRead += read;
+      metrics.recordRead(read);
+      workerContext.metrics().recordRead(read);
+      if (read == space) {
+        readBufferSizer.readFilledBuffer();
+      }
+
+      buf.flip();
+      processBuffered(buf);
+      if (!open) {
+        return;
+      }
+
+      // stop once the socket was drained, reading was suspended or this connection
+      // had its share of the worker, the remaining data is read on the next select
+      final boolean endOfPass = read < space || readSuspension != 0 || ++reads >= MAX_READS_PER_PASS;
+      if (endOfPass && !buf.hasRemaining()) {
+        // ended at a frame boundary, so return the read buffer
+        // to the pool until the next readable event
+        readBufferSizer.readPassCompleted(totalRead);
+        releaseReadBuffer();
+        return;
+      }
+
+      buf = compactReadBuffer(buf);
+      if (endOfPass) {
+        readBufferSizer.readPassCompleted(totalRead);
+        return;
+      }
+    }
+  }
+
+  // Process the frames which were left in the read buffer while reading was suspended
+  private void processRemainingBuffered() {
+    final ByteBuffer buf = socketReadBuffer;
+    if (buf == null) {
+      return;
+    }
+
+    buf.flip();
+    processBuffered(buf);
+    if (!open) {
+      return;
+    }
+
+    if (!buf.hasRemaining()) {
+      releaseReadBuffer();
+    } else {
+      compactReadBuffer(buf);
+    }
+  }
+
+  /// Stop reading from the socket for the given reason until it is resumed, frames
+  /// which were already read stay buffered. Only to be called on the worker thread.
+  protected final void suspendReading(int reason) {
+    final boolean wasReading = readSuspension == 0;
+    readSuspension |= reason;
+    if (wasReading) {
+      setReadInterest(false);
+    }
+  }
+
+  /// Lift the suspension of reads for the given reason, continuing to read if there
+  /// are no other reasons left. Only to be called on the worker thread.
+  protected final void resumeReading(int reason) {
+    if ((readSuspension & reason) == 0) {
+      return;
+    }
+
+    readSuspension &= ~reason;
+    if (readSuspension != 0 || !open) {
+      return;
+    }
+
+    // when resumed from within processing the running pass continues with the buffered frames
+    if (!processingBuffered) {
+      processRemainingBuffered();
+    }
+
+    if (open && readSuspension == 0) {
+      setReadInterest(true);
+    }
+  }
+
+  private void setReadInterest(boolean interested) {
+    if (selectionKey == null || !selectionKey.isValid()) {
+      return;
+    }
+
+    selectionKey.interestOps(interested ?
+        selectionKey.interestOps() | SelectionKey.OP_READ :
+        selectionKey.interestOps() & ~SelectionKey.OP_READ);
+  }
+
+  // Parse and complete as many frames as possible from the readable data in the read buffer
+  private void processBuffered(ByteBuffer buf) {
+    processingBuffered = true;
+    try {
+      processBuffered0(buf);
+    } finally {
+      processingBuffered = false;
+    }
+  }
+
+  private void processBuffered0(ByteBuffer buf) {
+    while (open && readSuspension == 0) {
+      if (streamingFrame != null) {
+        if (streamRemaining == 0) {
+          final ConnectionFrame stream = streamingFrame;
+          streamingFrame = null;
+          recordFrameIn(stream);
+          emitStreamEvent(stream, new ConnectionFrame(this, 0, 0), ConnectionFrame.STREAM_COMPLETE);
+          continue;
+        }
+
+        // pass the available payload of the streamed frame on as a chunk
+        final int count = Math.min(buf.remaining(), streamRemaining);
+        if (count == 0) {
+          return; // exhausted the read buffer
+        }
+
+        final int position = buf.position();
+        final ConnectionFrame chunk = new ConnectionFrame(this, count, 0);
+        chunk.sharedBuffer = retainReadBuffer();
+        chunk.buffer = socketReadView.slice(position, count);
+        chunk.completed = true;
+        buf.position(position + count);
+        streamRemaining -= count;
+        emitStreamEvent(streamingFrame, chunk, ConnectionFrame.STREAM_CHUNK);
+        continue;
+      }
 
-          readState = 2; // INCOMPLETE_HEADER -- it must read more data
-          continue; // no available data, wait for more from system
-                    // we can avoid another iteration and exit early because there's no way it read like 2 bytes
-                    // but still has more available in the socket
+      if (incompleteFrame != null) {
+        // copy payload data to frame buffer
+        final ByteBuffer frameBuf = incompleteFrame.buffer;
+        final int count = Math.min(buf.remaining(), frameBuf.remaining());
+        frameBuf.put(frameBuf.position(), buf, buf.position(), count);
+        frameBuf.position(frameBuf.position() + count);
+        buf.position(buf.position() + count);
+        if (frameBuf.hasRemaining()) {
+          return; // exhausted the read buffer
         }
 
-        final int sizeAndFlags = buf.getInt();
-        final int size = sizeAndFlags & ~ConnectionFrame.HEADER_FLAGS_MASK;
-        final int flags = sizeAndFlags & ConnectionFrame.HEADER_FLAGS_MASK;
+        // completed a frame
+        final ConnectionFrame frame = incompleteFrame;
+        incompleteFrame = null;
+        frameBuf.flip();
+        frame.completed = true;
+        completedIncomingFrameGuarded(frame);
+        continue;
+      }
+
+      if (buf.remaining() < HEADER_SIZE) {
+        return; // partial header, keep it buffered until more data arrives
+      }
+
+      final int position = buf.position();
+      final int sizeAndFlags = buf.getInt(position);
+      final int size = sizeAndFlags & ~ConnectionFrame.HEADER_FLAGS_MASK;
+      final int flags = sizeAndFlags & ConnectionFrame.HEADER_FLAGS_MASK;
+
+      final int minimumSize = CHANNEL_SIZE + ((flags & ConnectionFrame.CALL) != 0 ? CALL_ID_SIZE : 0);
+      if (size < minimumSize || size > MAX_FRAME_SIZE || size > trust.getMaxFrameSize()) {
+        TODO.todoEventLogging("Connection", "WARN: Received frame of size " + size + " at trust " + trust + ", closing channel");
+        close();
+        return;
+      }
 
-        incompleteFrame = new ConnectionFrame(this, size, flags);
-        if (size < 0 || size > MAX_FRAME_SIZE || size > trust.getMaxFrameSize()) {
-          TODO.todoEventLogging("Connection", "WARN: Received frame of size " + size + " at trust " + trust + ", closing channel");
+      // compressed frames are decompressed into a decode buffer once complete, whose size
+      // is read from the start of the compressed payload, after the channel and call id
+      int decompressedSize = 0;
+      if ((flags & ConnectionFrame.COMPRESSED) != 0 && size >= minimumSize + 4) {
+        if (buf.remaining() < HEADER_SIZE + minimumSize + 4) {
+          return; // wait for the uncompressed size
+        }
+
+        decompressedSize = buf.getInt(position + HEADER_SIZE + minimumSize);
+        if (decompressedSize < 0 || decompressedSize > Math.min(MAX_FRAME_SIZE, trust.getMaxFrameSize())) {
+          TODO.todoEventLogging("Connection", "WARN: Received compressed frame of uncompressed size " + decompressedSize + " at trust " + trust + ", closing channel");
           close();
           return;
         }
+      }
+
+      if (buf.remaining() - HEADER_SIZE >= size) {
+        // the frame is fully contained in the read buffer, so hand out a
+        // read-only slice which keeps the read buffer referenced until discarded,
+        // waiting with the header unread if decompressing it would exceed the decode budget
+        if (decompressedSize > 0 && !hasDecodeBudget(decompressedSize)) {
+          awaitDecodeBudget(decompressedSize);
+          continue;
+        }
+
+        if (exceedsRateLimit(size)) {
+          return;
+        }
 
-        // allocate frame buffer and finalize new frame
-        incompleteFrame.buffer = workerContext.decodeBufferProvider().acquire(size).limit(size);
-        positionedAtFrameHeader = false;
+        final ConnectionFrame frame = new ConnectionFrame(this, size, flags);
+        frame.sharedBuffer = retainReadBuffer();
+        frame.buffer = socketReadView.slice(position + HEADER_SIZE, size);
+        frame.completed = true;
+        buf.position(position + HEADER_SIZE + size);
+        completedIncomingFrameGuarded(frame);
+        continue;
       }
 
-      // copy payload data to frame buffer
-      final ByteBuffer frameBuf = incompleteFrame.buffer;
+      if (HEADER_SIZE + size <= buf.capacity()) {
+        return; // the frame fits the read buffer, wait for the rest of it
+      }
 
-      int remainingFrame = frameBuf.remaining();
-      if (buf.remaining() > remainingFrame) {
-        // we read another frame, prepare for that
-        frameBuf.put(frameBuf.position(), buf, buf.position(), remainingFrame);
-        frameBuf.position(frameBuf.position() + remainingFrame);
+      // large uncompressed frames for streaming handlers are passed on in chunks as they arrive
+      if ((flags & (ConnectionFrame.COMPRESSED | ConnectionFrame.CALL)) == 0 && size >= manager.getStreamingThreshold()) {
+        if (buf.remaining() < HEADER_SIZE + CHANNEL_SIZE) {
+          return; // wait for the channel id
+        }
 
-        buf.position(buf.position() + remainingFrame); // prepare to write to the end of the buffer and then parse from that position
-        positionedAtFrameHeader = true;
-      } else {
-        frameBuf.put(buf);
+        final short channelId = buf.getShort(position + HEADER_SIZE);
+        if (pipeline.handler(channelId) instanceof StreamingFrameHandler handler) {
+          if (exceedsRateLimit(size)) {
+            return;
+          }
 
-        // clear buffer as we have exhausted the read buffer
-        // at this point, continue to next iteration to see
-        // if there is any data remaining
-        buf.position(0);
+          buf.position(position + HEADER_SIZE + CHANNEL_SIZE);
+          startStream(size, flags, channelId, handler);
+          continue;
+        }
       }
 
-      // check if we read the entire frame
-      if (!frameBuf.hasRemaining()) {
-        // completed a frame
-        frameBuf.flip();
-        incompleteFrame.completed = true;
-        completedIncomingFrameGuarded(incompleteFrame);
-        incompleteFrame = null;
+      // the frame exceeds the read buffer, so allocate a dedicated buffer to copy the payload into,
+      // if that and decompressing it would exceed the decode budget wait for buffers to be released
+      // with the header unread
+      if (!hasDecodeBudget(size + decompressedSize)) {
+        awaitDecodeBudget(size + decompressedSize);
+        continue;
       }
+
+      if (exceedsRateLimit(size)) {
+        return;
+      }
+
+      buf.position(position + HEADER_SIZE);
+      incompleteFrame = new ConnectionFrame(this, size, flags);
+      incompleteFrame.buffer = workerContext.decodeBufferProvider().acquire(size).limit(size);
+      reserveDecodeBudget(incompleteFrame, size);
+    }
+  }
+
+  // Take the tokens for a frame of the given size from the rate limits, or suspend reading with
+  // the header unread until the buckets refilled. Only called right before the frame is consumed.
+  private boolean exceedsRateLimit(int size) {
+    if (frameRateLimit == null && byteRateLimit == null) {
+      return false;
     }
+
+    final long now = System.nanoTime();
+    final long wait = Math.max(
+        frameRateLimit != null ? frameRateLimit.nanosUntilAvailable(1, now) : 0,
+        byteRateLimit != null ? byteRateLimit.nanosUntilAvailable(HEADER_SIZE + size, now) : 0);
+    if (wait == 0) {
+      if (frameRateLimit != null) {
+        frameRateLimit.take(1);
+      }
+
+      if (byteRateLimit != null) {
+        byteRateLimit.take(HEADER_SIZE + size);
+      }
+
+      return false;
+    }
+
+    suspendReading(SUSPEND_RATE_LIMIT);
+    rateLimitResumeNanos = now + wait;
+    if (workerContext == workerContext.sharedContext) {
+      scheduleRateLimitResume0();
+    } else {
+      // handled on its own thread, the timer wheel belongs to the worker
+      workerContext.sharedContext.execute(scheduleRateLimitResumeTask);
+    }
+
+    return true;
+  }
+
+  // Schedule resuming after the rate limit suspension, on the thread of the timer wheel
+  private void scheduleRateLimitResume0() {
+    final HashedTimingWheel wheel = timerWheel;
+    if (wheel != null && open) {
+      wheel.schedule(rateLimitResume, rateLimitResumeNanos);
+    }
+  }
+
+  // Resume reading on the thread handling this connection once the rate limit suspension passed
+  private void rateLimitExpired() {
+    if (workerContext == workerContext.sharedContext) {
+      resumeReading(SUSPEND_RATE_LIMIT);
+    } else {
+      workerContext.execute(resumeAfterRateLimitTask);
+    }
+  }
+
+  // Move the unconsumed data to the start of the read buffer so the next read appends to it,
+  // switching to a new buffer if frames sliced from the current one are still referenced
+  // or the read buffer sizer moved to another capacity
+  private ByteBuffer compactReadBuffer(ByteBuffer buf) {
+    final int capacity = readBufferSizer.capacity();
+    final boolean resize = capacity != socketReadBufferCapacity && buf.remaining() < capacity;
+    if (!resize && !isReadBufferShared()) {
+      return buf.compact();
+    }
+
+    final int newCapacity = resize ? capacity : socketReadBufferCapacity;
+    final ByteBuffer newBuf = workerContext.readBufferProvider().acquire(newCapacity).clear();
+    newBuf.put(buf);
+    releaseReadBuffer();
+
+    socketReadBufferCapacity = newCapacity;
+    socketReadBuffer = newBuf;
+    return newBuf;
   }
 
-  public static final AtomicInteger REC = new AtomicInteger(0); // Temporary for stress testing
+  // Replace the payload of a compressed frame with the decompressed payload in a pooled decode buffer,
+  // the budget for it was checked before the frame was read, reading is suspended if other frames
+  // took the budget in the meantime
+  private void decompressFrame(ConnectionFrame frame) throws DataFormatException {
+    final ByteBufferProvider provider = workerContext.decodeBufferProvider();
+    final ByteBuffer decompressed = workerContext.compression().decompress(frame.buffer, provider,
+        Math.min(MAX_FRAME_SIZE, trust.getMaxFrameSize()));
+
+    frame.releaseBuffer();
+    frame.buffer = decompressed;
+    reserveDecodeBudget(frame, decompressed.limit());
+    if (!hasDecodeBudget(0)) {
+      awaitDecodeBudget(0);
+    }
+  }
+
+  // Whether a decode buffer of the given size fits the budgets of this connection and the worker,
+  // a single buffer is always allowed if the connection or worker holds none besides the buffers
+  // of streams, as those are only released once further frames were read
+  private boolean hasDecodeBudget(int size) {
+    final long connectionOutstanding = decodeBytesOutstanding.get();
+    if (!fitsDecodeBudget(connectionOutstanding - streamDecodeBytes.get(), connectionOutstanding, size, manager.getConnectionDecodeBudget())) {
+      return false;
+    }
+
+    final ConnectionWorkerContext context = workerContext.sharedContext;
+    final long workerOutstanding = context.decodeBytesOutstanding.get();
+    return fitsDecodeBudget(workerOutstanding - context.streamDecodeBytes.get(), workerOutstanding, size, manager.getWorkerDecodeBudget());
+  }
+
+  private static boolean fitsDecodeBudget(long blocking, long outstanding, int size, long budget) {
+    return blocking <= 0 || outstanding + size <= budget;
+  }
+
+  // Account the decode buffer of the given frame against the budgets
+  private void reserveDecodeBudget(ConnectionFrame frame, int size) {
+    decodeBytesOutstanding.addAndGet(size);
+    workerContext.sharedContext.decodeBytesOutstanding.addAndGet(size);
+    frame.budgetContext = workerContext.sharedContext;
+    frame.budgetedBytes = size;
+  }
+
+  /// Account a buffer held by a stream of this connection against the decode budgets, may be called from any thread
+  /// @return The context to release the budget to, or null if the buffer does not fit the budgets
+  ConnectionWorkerContext reserveStreamDecodeBudget(int size) {
+    // the buffers of other streams count as well, so streams can not exceed the budgets together
+    final long connectionOutstanding = decodeBytesOutstanding.get();
+    final ConnectionWorkerContext context = workerContext.sharedContext;
+    final long workerOutstanding = context.decodeBytesOutstanding.get();
+    if (!fitsDecodeBudget(connectionOutstanding, connectionOutstanding, size, manager.getConnectionDecodeBudget()) ||
+        !fitsDecodeBudget(workerOutstanding, workerOutstanding, size, manager.getWorkerDecodeBudget())) {
+      return null;
+    }
+
+    streamDecodeBytes.addAndGet(size);
+    decodeBytesOutstanding.addAndGet(size);
+    context.streamDecodeBytes.addAndGet(size);
+    context.decodeBytesOutstanding.addAndGet(size);
+    return context;
+  }
+
+  /// Called when a frame releases its decode buffer, may be called from any thread
+  void releaseDecodeBudget(ConnectionWorkerContext context, int size) {
+    decodeBytesOutstanding.addAndGet(-size);
+    context.releaseDecodeBudget(size);
+  }
+
+  /// Called when a stream releases the buffer reserved by reserveStreamDecodeBudget, may be called from any thread
+  void releaseStreamDecodeBudget(ConnectionWorkerContext context, int size) {
+    streamDecodeBytes.addAndGet(-size);
+    context.streamDecodeBytes.addAndGet(-size);
+    releaseDecodeBudget(context, size);
+  }
+
+  // Suspend reading until a decode buffer of the given size fits the budget
+  private void awaitDecodeBudget(int size) {
+    awaitedDecodeSize = size;
+    suspendReading(SUSPEND_DECODE_BUDGET);
+    workerContext.sharedContext.awaitDecodeBudget(this);
+
+    // the buffers may have been released before this connection was waiting
+    if (hasDecodeBudget(size)) {
+      resumeReading(SUSPEND_DECODE_BUDGET);
+    }
+  }
+
+  /// Called by the worker after decode buffers were released while this connection was waiting
+  void decodeBudgetReleased(ConnectionWorkerContext context) {
+    final ConnectionWorkerContext current = workerContext;
+    if (current.sharedContext != context) {
+      return; // migrated away
+    }
+
+    if (current != context) {
+      // the connection is handled on its own thread
+      current.execute(this::retryDecodeBudget);
+      return;
+    }
+
+    retryDecodeBudget();
+  }
+
+  // Resume reading if the awaited decode buffer fits the budget now
+  private void retryDecodeBudget() {
+    if ((readSuspension & SUSPEND_DECODE_BUDGET) == 0) {
+      return; // no longer waiting
+    }
+
+    if (!hasDecodeBudget(awaitedDecodeSize)) {
+      workerContext.sharedContext.awaitDecodeBudget(this); // keep waiting
+      return;
+    }
+
+    resumeReading(SUSPEND_DECODE_BUDGET);
+  }
+
+  // Count a completed incoming frame
+  private void recordFrameIn(ConnectionFrame frame) {
+    metrics.recordFrameIn();
+    workerContext.metrics().recordFrameIn(frame.size());
+  }
 
   /**
-   * Called when a completed frame has been read and is ready to be decoded and processed.
+   * Called when a completed frame has been read and is ready to be decoded and dispatched.
+   *
+   * The frame is dispatched on the worker thread, or handed to the handler executor
+   * of the connection manager if one is configured.
    *
    * @param frame The frame to be processed.
    */
   protected final void completedIncomingFrameGuarded(ConnectionFrame frame) {
     try {
-//      System.out.println("Read frame sized " + frame.size() + " with UTF8: " + ByteBuffers.remainingUTF8String(frame.buffer()));
-      REC.incrementAndGet();
+      frame.channel = frame.buffer.getShort();
+      if ((frame.headerFlags() & ConnectionFrame.CALL) != 0) {
+        frame.callId = frame.buffer.getLong(); // not compressed
+      }
+      if (frame.channel == KEEPALIVE_CHANNEL) {
+        // only refreshes the time of the last read
+        recordFrameIn(frame);
+        frame.discard();
+        return;
+      }
+
+      if (frame.isCompressed()) {
+        decompressFrame(frame);
+      }
+
+      recordFrameIn(frame);
+      if (frame.channel == STREAM_CONTROL_CHANNEL) {
+        // flow control is handled right away, so it is not held up by queued frames
+        final StreamMultiplexer multiplexer = this.multiplexer;
+        if (multiplexer != null) {
+          multiplexer.controlReceived(frame.buffer);
+        }
+
+        frame.discard();
+        return;
+      }
+    } catch (DataFormatException ex) {
+      TODO.todoEventLogging("Connection", "WARN: Received malformed compressed frame of size " + frame.size() + " (" + ex.getMessage() + "), closing channel");
+      frame.discard();
+      close();
+      return;
+    } catch (Exception ex) {
+      TODO.todoErrorHandling("An exception occurred while decoding Connection frame of size " + frame.size(), ex);
+      frame.discard();
+      return;
+    }
+
+    final Executor executor = manager.getHandlerExecutor();
+    if (executor != null) {
+      offloadFrame(frame, executor);
+    } else {
+      dispatchGuarded(frame);
+    }
+  }
+
+  // Begin streaming the payload of a frame to the given handler
+  private void startStream(int size, int flags, short channelId, StreamingFrameHandler handler) {
+    final ConnectionFrame stream = new ConnectionFrame(this, size, flags);
+    stream.channel = channelId;
+    stream.streamHandler = handler;
+    streamingFrame = stream;
+    streamRemaining = size - CHANNEL_SIZE;
+    emitStreamEvent(stream, new ConnectionFrame(this, 0, 0), ConnectionFrame.STREAM_START);
+  }
+
+  // Abort the frame currently being streamed, if any
+  private void abortStream() {
+    final ConnectionFrame stream = streamingFrame;
+    if (stream == null) {
+      return;
+    }
+
+    streamingFrame = null;
+    final ConnectionFrame event = new ConnectionFrame(this, 0, 0);
+    event.stream = stream;
+    event.streamEvent = ConnectionFrame.STREAM_ABORT;
+    event.channel = stream.channel;
+
+    final Executor executor = manager.getHandlerExecutor();
+    if (executor == null || handlerQueue == null) {
+      dispatchGuarded(event);
+      return;
+    }
+
+    // the handler queue may be full, so the abort is delivered separately once it was drained
+    pendingStreamAbort = event;
+    scheduleDrain(executor);
+  }
+
+  // Pass an event of a streamed frame on to its handler, like a completed frame
+  private void emitStreamEvent(ConnectionFrame stream, ConnectionFrame event, byte kind) {
+    event.stream = stream;
+    event.streamEvent = kind;
+    event.channel = stream.channel;
+
+    final Executor executor = manager.getHandlerExecutor();
+    if (executor != null) {
+      offloadFrame(event, executor);
+    } else {
+      dispatchGuarded(event);
+    }
+  }
+
+  // Call the streaming handler for the given stream event, aborting the stream if it fails
+  private void dispatchStreamEvent(ConnectionFrame event) {
+    final ConnectionFrame stream = event.stream;
+    if (stream.streamFailed) {
+      return; // already aborted
+    }
+
+    final StreamingFrameHandler handler = stream.streamHandler;
+    try {
+      switch (event.streamEvent) {
+        case ConnectionFrame.STREAM_START -> handler.onStart(stream);
+        case ConnectionFrame.STREAM_CHUNK -> handler.onChunk(stream, event.buffer);
+        case ConnectionFrame.STREAM_COMPLETE -> {
+          stream.completed = true;
+          handler.onComplete(stream);
+        }
+        case ConnectionFrame.STREAM_ABORT -> {
+          stream.streamFailed = true;
+          handler.onAbort(stream);
+        }
+      }
+    } catch (Exception ex) {
+      TODO.todoErrorHandling("An exception occurred while streaming Connection frame of size " + stream.size(), ex);
+      if (!stream.streamFailed) {
+        stream.streamFailed = true;
+        try {
+          handler.onAbort(stream);
+        } catch (Exception abortEx) {
+          TODO.todoErrorHandling("An exception occurred while aborting streamed Connection frame", abortEx);
+        }
+      }
+    }
+  }
+
+  // Dispatch the given decoded frame through the pipeline
+  private void dispatchGuarded(ConnectionFrame frame) {
+    if (frame.streamEvent != 0) {
+      try {
+        dispatchStreamEvent(frame);
+      } finally {
+        frame.discard();
+      }
+
+      return;
+    }
+
+    try {
+      final StreamMultiplexer multiplexer = this.multiplexer;
+      if (frame.isResponse()) {
+        completeCall(frame);
+      } else if (frame.isCall() || multiplexer == null || !multiplexer.dispatch(frame)) {
+        pipeline.dispatch(frame);
+      }
     } catch (Exception ex) {
       TODO.todoErrorHandling("An exception occurred while processing Connection frame of size " + frame.size(), ex);
     } finally {
@@ -207,4 +1369,73 @@ public class Connection {
     }
   }
 
+  // Pass the given response to the call it answers, responses to calls which already timed out are dropped
+  private void completeCall(ConnectionFrame response) throws Exception {
+    final PendingCall call = calls.remove(response.callId());
+    if (call == null) {
+      return;
+    }
+
+    workerContext.cancelTimeout(call);
+    call.completed(response);
+  }
+
+  // Hand the frame to the handler executor through the handler queue, which is drained by at most
+  // one task at a time to preserve the order of frames. Reading is suspended once the queue is full.
+  private void offloadFrame(ConnectionFrame frame, Executor executor) {
+    SpscArrayQueue<ConnectionFrame> queue = handlerQueue;
+    if (queue == null) {
+      queue = handlerQueue = new SpscArrayQueue<>(manager.getHandlerQueueCapacity());
+    }
+
+    queue.offer(frame); // never full, as reading is suspended before that
+    if (queue.size() >= queue.capacity()) {
+      handlerQueueFull.set(true);
+      suspendReading(SUSPEND_HANDLER_QUEUE);
+
+      // the handlers may have caught up before the flag was visible
+      if (queue.size() <= queue.capacity() / 2 && handlerQueueFull.compareAndSet(true, false)) {
+        resumeReading(SUSPEND_HANDLER_QUEUE);
+      }
+    }
+
+    scheduleDrain(executor);
+  }
+
+  // Start draining the handler queue on the executor unless it is already being drained
+  private void scheduleDrain(Executor executor) {
+    if (draining.compareAndSet(false, true)) {
+      try {
+        executor.execute(drainHandlerQueueTask);
+      } catch (RejectedExecutionException ex) {
+        TODO.todoErrorHandling("Handler executor rejected frame processing, processing on the worker thread", ex);
+        drainHandlerQueue();
+      }
+    }
+  }
+
+  // Process the frames in the handler queue, runs on the handler executor
+  private void drainHandlerQueue() {
+    final SpscArrayQueue<ConnectionFrame> queue = handlerQueue;
+    do {
+      ConnectionFrame frame;
+      while ((frame = queue.poll()) != null) {
+        dispatchGuarded(frame);
+
+        // resume reading once half of the queue is free again
+        if (handlerQueueFull.get() && queue.size() <= queue.capacity() / 2 && handlerQueueFull.compareAndSet(true, false)) {
+          executeOnOwner(resumeAfterHandlerQueueTask);
+        }
+      }
+
+      final ConnectionFrame abort = pendingStreamAbort;
+      if (abort != null) {
+        pendingStreamAbort = null;
+        dispatchGuarded(abort);
+      }
+
+      draining.set(false);
+    } while ((!queue.isEmpty() || pendingStreamAbort != null) && draining.compareAndSet(false, true));
+  }
+
 }
@@ -1,17 +1,26 @@
 package com.orbyfied.slate.network;
 
+import com.orbyfied.slate.util.buffer.RefCountedByteBuffer;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 @RequiredArgsConstructor
 public final class ConnectionFrame {
 
   /// The mask to extract the flags from the 4 byte header field
-  public static int HEADER_FLAGS_MASK = 0b1 << 31;
+  public static int HEADER_FLAGS_MASK = 0b111 << 29;
   /// Core header flag: Whether the frame is compressed
   public static int COMPRESSED = 1 << 31;
+  /// Core header flag: Whether the message continues in the next frame on the channel, see {@link StreamMultiplexer}
+  public static int CONTINUED = 1 << 30;
+  /// Core header flag: Whether the channel id is followed by a [call id: int64], see {@link Connection#call}
+  public static int CALL = 1 << 29;
+
+  /// The bit of the call id marking the frame as the response to the call with the remaining bits as id
+  public static final long RESPONSE_BIT = 1L << 63;
 
   private final Connection connection; // The source connection of this frame
   private final int size;              // The raw size of the network transmitted payload (before decrypt+decompress)
@@ -21,18 +30,72 @@ public final class ConnectionFrame {
   @Getter boolean completed = false;
 
   short channel;
+  long callId; // The call id following the channel id of call frames, 0 for other frames
   volatile ByteBuffer buffer;
 
+  // The amount of holders of this frame, the buffer is released once all of them discarded it
+  private volatile int references = 1;
+  private static final AtomicIntegerFieldUpdater<ConnectionFrame> REFERENCES =
+      AtomicIntegerFieldUpdater.newUpdater(ConnectionFrame.class, "references");
+
+  // The shared read buffer this frame was sliced from, null if the frame owns a pooled decode buffer
+  RefCountedByteBuffer sharedBuffer;
+
+  // The size of the decode buffer accounted against the decode budget and the worker it was accounted to
+  int budgetedBytes;
+  ConnectionWorkerContext budgetContext;
+
+  // Streaming: the kind of stream event this frame carries and the streamed frame it belongs to
+  static final byte STREAM_START = 1;
+  static final byte STREAM_CHUNK = 2;
+  static final byte STREAM_COMPLETE = 3;
+  static final byte STREAM_ABORT = 4;
+  byte streamEvent;
+  ConnectionFrame stream;
+
+  // For streamed frames: the handler receiving the stream events and whether an event failed
+  StreamingFrameHandler streamHandler;
+  boolean streamFailed;
+
+  /**
+   * Keep this frame and its buffer beyond the dispatch, until it is discarded once more
+   * by the new holder. May be called from any thread while the frame is held.
+   */
+  public ConnectionFrame retain() {
+    REFERENCES.incrementAndGet(this);
+    return this;
+  }
+
   // To be called when the frame is done being decoded (return buffer to channel)
   // It is very important that this is invoked on every code path
   public void discard() {
+    if (REFERENCES.decrementAndGet(this) > 0) {
+      return; // still held
+    }
+
+    releaseBuffer();
+  }
+
+  /// Release the current buffer regardless of the holders, the buffer may be replaced afterwards
+  void releaseBuffer() {
     if (buffer == null) {
       return;
     }
 
     final ByteBuffer buf = buffer;
     buffer = null;
+    if (sharedBuffer != null) {
+      sharedBuffer.release();
+      sharedBuffer = null;
+      return;
+    }
+
     connection.getWorkerContext().decodeBufferProvider().release(buf);
+    if (budgetedBytes > 0) {
+      final int bytes = budgetedBytes;
+      budgetedBytes = 0;
+      connection.releaseDecodeBudget(budgetContext, bytes);
+    }
   }
 
   public Connection connection() {
@@ -43,6 +106,33 @@ public final class ConnectionFrame {
     return size;
   }
 
+  public int headerFlags() {
+    return headerFlags;
+  }
+
+  public boolean isCompressed() {
+    return (headerFlags & COMPRESSED) != 0;
+  }
+
+  public boolean isContinued() {
+    return (headerFlags & CONTINUED) != 0;
+  }
+
+  /// The call id of this request or response, see {@link #isCall()} and {@link #isResponse()}
+  public long callId() {
+    return callId & ~RESPONSE_BIT;
+  }
+
+  /// Whether this frame is a call waiting for a response, see {@link Connection#respond(ConnectionFrame, ByteBuffer)}
+  public boolean isCall() {
+    return (headerFlags & CALL) != 0 && (callId & RESPONSE_BIT) == 0;
+  }
+
+  /// Whether this frame is the response to a call made on this connection
+  public boolean isResponse() {
+    return (headerFlags & CALL) != 0 && (callId & RESPONSE_BIT) != 0;
+  }
+
   public short channel() {
     return channel;
   }
@@ -51,9 +141,14 @@ public final class ConnectionFrame {
     return buffer;
   }
 
+  /// Whether the payload of this frame is passed to a streaming handler in chunks
+  public boolean isStreamed() {
+    return streamHandler != null;
+  }
+
   @Override
   public String toString() {
-    return "Frame(size: " + size + ", flags: " + Integer.toBinaryString(headerFlags >> 24) + ", position: " + buffer.position() + ", limit: " + buffer.limit() + ", completed: " + completed + ")";
+    return "Frame(size: " + size + ", flags: " + Integer.toBinaryString(headerFlags >> 24) + ", position: " + (buffer != null ? buffer.position() : -1) + ", limit: " + (buffer != null ? buffer.limit() : -1) + ", completed: " + completed + ")";
   }
 
 }
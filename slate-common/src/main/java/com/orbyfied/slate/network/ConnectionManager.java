@@ -1,22 +1,38 @@
 package com.orbyfied.slate.network;
 
 import com.orbyfied.slate.network.worker.ThreadConnectionWorker;
+import com.orbyfied.slate.network.worker.VirtualThreadConnectionWorker;
 import com.orbyfied.slate.project.TODO;
+import com.orbyfied.slate.util.buffer.ByteBufferProvider;
+import com.orbyfied.slate.util.buffer.RefCountedByteBuffer;
 import lombok.Getter;
 import lombok.SneakyThrows;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Manages direct connections and the local server through Java NIO.
@@ -28,13 +44,88 @@ public class ConnectionManager {
   /// The pool of connection workers
   private final @Getter List<ConnectionWorker> workerPool = new ArrayList<>();
 
+  /// The open connections of this manager
+  private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+  /// The default pipeline incoming frames are dispatched through
+  private final @Getter FramePipeline pipeline = new FramePipeline();
+
   /// Selects the worker assigned to a connection
   private WorkerSelector workerSelector = WorkerSelector.roundRobin();
+  /// Selects the worker establishing an outbound connection, which has no peer to select by yet
+  private final WorkerSelector connectWorkerSelector = WorkerSelector.leastConnections();
+
+  /// The pool of reusable outbound connections per remote address, created on first use
+  private volatile ConnectionPool connectionPool;
+
+  /// The pool of the buffers broadcast frames are encoded into, which are released by the workers writing them
+  private final ByteBufferProvider broadcastBufferProvider =
+      ByteBufferProvider.sizeClassedDirect(4096, ConnectionWorkerContext.MAX_POOLED_DECODE_CAPACITY);
+  // The time the shared buffer pools were last trimmed, by whichever worker got there first
+  private final AtomicLong lastBufferTrimNanos = new AtomicLong(System.nanoTime());
+
+  /// The bounds for the adaptive read buffer capacity of each connection
+  private int readBufferMinimum = AdaptiveReadBufferSizer.DEFAULT_MINIMUM;
+  private int readBufferInitial = AdaptiveReadBufferSizer.DEFAULT_INITIAL;
+  private int readBufferMaximum = AdaptiveReadBufferSizer.DEFAULT_MAXIMUM;
+
+  /// The default capacity of the per-connection queue of frames waiting for the handler executor
+  public static final int DEFAULT_HANDLER_QUEUE_CAPACITY = 256;
+
+  /// The executor completed frames are processed on, null to process them on the worker threads
+  private volatile @Getter Executor handlerExecutor;
+  private volatile @Getter int handlerQueueCapacity = DEFAULT_HANDLER_QUEUE_CAPACITY;
+
+  /// The default limits for the total size of decode buffers held per connection and per worker
+  public static final long DEFAULT_CONNECTION_DECODE_BUDGET = 1024 * 1024 * 32;  // 32 MB
+  public static final long DEFAULT_WORKER_DECODE_BUDGET = 1024 * 1024 * 256;     // 256 MB
+
+  /// The limits for the total size of decode buffers held per connection and per worker
+  private volatile @Getter long connectionDecodeBudget = DEFAULT_CONNECTION_DECODE_BUDGET;
+  private volatile @Getter long workerDecodeBudget = DEFAULT_WORKER_DECODE_BUDGET;
+
+  /// The minimum payload size for outgoing frames to be compressed, negative to disable compression
+  private volatile @Getter int compressionThreshold = FrameCompression.DEFAULT_THRESHOLD;
+
+  /// The policy deciding when the frames sent on new connections are written
+  private volatile @Getter FlushPolicy flushPolicy = FlushPolicy.endOfLoop();
+
+  /// The default minimum size of received frames to be streamed to streaming handlers
+  public static final int DEFAULT_STREAMING_THRESHOLD = 1024 * 1024; // 1 MB
+
+  /// The minimum size of received frames to be streamed to streaming handlers
+  private volatile @Getter int streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+
+  /// The time workers spin on non-blocking selects before blocking, 0 to block right away
+  private volatile @Getter long selectSpinNanos = 0;
+
+  /// Whether selectors pass ready keys directly to a reused handler instead of through the selected-key set
+  private volatile @Getter boolean optimizedSelection = true;
+
+  /// The time without receiving data after which connections are closed, 0 to keep idle connections open
+  private volatile @Getter long idleTimeoutNanos = 0;
+  /// The time without sending data after which a keepalive frame is sent, 0 to send no keepalive frames
+  private volatile @Getter long keepaliveIntervalNanos = 0;
+
+  /// The default time after which outbound connection attempts fail
+  public static final long DEFAULT_CONNECT_TIMEOUT_NANOS = 10_000_000_000L; // 10s
+
+  /// The time after which outbound connection attempts fail, 0 to wait for the operating system to give up
+  private volatile @Getter long connectTimeoutNanos = DEFAULT_CONNECT_TIMEOUT_NANOS;
 
   /// The server channel and acceptor instances
   private ServerSocketChannel serverSocketChannel;
   private Selector acceptorSelector;
   private Thread acceptorThread;
+  private final Consumer<SelectionKey> acceptKeyHandler = this::acceptKey;
+
+  /// Whether every worker accepts connections on its own server socket bound with SO_REUSEPORT
+  private @Getter boolean reusePortAcceptors = false;
+  // Whether the bound server socket was given to a worker in the SO_REUSEPORT mode
+  private boolean boundChannelAssigned = false;
+
+  /// The thread periodically rebalancing connections between workers, if enabled
+  private ScheduledExecutorService rebalancingExecutor;
 
   public boolean isActive() {
     return active.get();
@@ -43,11 +134,22 @@ public class ConnectionManager {
   @SneakyThrows
   public void bind(SocketAddress socketAddress) {
     serverSocketChannel = ServerSocketChannel.open();
+    if (reusePortAcceptors) {
+      if (serverSocketChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+        serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+      } else {
+        TODO.todoEventLogging("ConnectionManager::bind", "WARN: SO_REUSEPORT is not supported, falling back to a single acceptor");
+        reusePortAcceptors = false;
+      }
+    }
+
     serverSocketChannel.bind(socketAddress);
     serverSocketChannel.configureBlocking(false);
 
-    acceptorSelector = Selector.open();
-    serverSocketChannel.register(acceptorSelector, SelectionKey.OP_ACCEPT);
+    if (!reusePortAcceptors) {
+      acceptorSelector = Selector.open();
+      serverSocketChannel.register(acceptorSelector, SelectionKey.OP_ACCEPT);
+    }
   }
 
   @SneakyThrows
@@ -58,33 +160,30 @@ public class ConnectionManager {
   public void start() {
     active.set(true);
 
+    if (reusePortAcceptors || serverSocketChannel == null) {
+      // the workers accept connections themselves, or this manager only connects to other nodes
+      for (ConnectionWorker worker : workerPool) {
+        startAndInitializeWorker(worker);
+      }
+
+      return;
+    }
+
     // create and start acceptor thread
     acceptorThread = new Thread(() -> {
       try {
         while (isActive()) {
+          if (optimizedSelection) {
+            acceptorSelector.select(acceptKeyHandler);
+            continue;
+          }
+
           acceptorSelector.select();
           Iterator<SelectionKey> iterator = acceptorSelector.selectedKeys().iterator();
           while (iterator.hasNext()) {
             SelectionKey key = iterator.next();
             iterator.remove();
-
-            if (key.isAcceptable()) {
-              // accept new connection
-              SocketChannel client = serverSocketChannel.accept();
-              client.configureBlocking(false);
-
-              // create connection object
-              Connection connection = new Connection(this, client);
-
-              // submit connection to worker
-              ConnectionWorker worker = workerSelector.next(this, connection);
-              if (worker == null || !worker.isActive()) {
-                TODO.todoEventLogging("ConnectionManager::accept", "WARN: workerSelector.next() returned null or inactive " + worker);
-                continue;
-              }
-
-              worker.submitConnection(connection);
-            }
+            acceptKey(key);
           }
         }
       } catch (Exception ex) {
@@ -100,11 +199,77 @@ public class ConnectionManager {
     }
   }
 
+  // Accept a connection on the server socket and submit it to a worker
+  private void acceptKey(SelectionKey key) {
+    if (!key.isAcceptable()) {
+      return;
+    }
+
+    try {
+      // accept new connection
+      SocketChannel client = serverSocketChannel.accept();
+      if (client == null) {
+        return;
+      }
+
+      client.configureBlocking(false);
+
+      // create connection object
+      Connection connection = new Connection(this, client);
+
+      // submit connection to worker
+      ConnectionWorker worker = workerSelector.next(this, connection);
+      if (worker == null || !worker.isActive()) {
+        TODO.todoEventLogging("ConnectionManager::accept", "WARN: workerSelector.next() returned null or inactive " + worker);
+        connection.close(); // closes the channel and unregisters the connection
+        return;
+      }
+
+      worker.submitConnection(connection);
+    } catch (IOException ex) {
+      TODO.todoErrorHandling("An exception occurred while accepting a connection", ex);
+    }
+  }
+
+  /**
+   * Open a connection to the given address, which is established and handled by a worker
+   * of this manager. The connection is not pooled, see {@link #getConnectionPool()}.
+   *
+   * @param address The address to connect to.
+   * @return The future completed with the connection once it is established.
+   */
+  public CompletableFuture<Connection> connect(SocketAddress address) {
+    if (!isActive()) {
+      return CompletableFuture.failedFuture(new IllegalStateException("The connection manager is not active"));
+    }
+
+    final ConnectionWorker worker = connectWorkerSelector.next(this, null);
+    if (worker == null || !worker.isActive()) {
+      return CompletableFuture.failedFuture(new IllegalStateException("No active worker to connect on"));
+    }
+
+    return worker.connect(address);
+  }
+
   public void close() {
+    final ConnectionPool connectionPool = this.connectionPool;
+    if (connectionPool != null) {
+      connectionPool.close();
+    }
+
     active.set(false);
+    disableRebalancing();
 
     try {
-      serverSocketChannel.close();
+      if (serverSocketChannel != null) {
+        serverSocketChannel.close();
+      }
+
+      for (ConnectionWorker worker : workerPool) {
+        if (worker.acceptChannel != null) {
+          worker.acceptChannel.close();
+        }
+      }
     } catch (Exception ex) {
       TODO.todoErrorHandling(ex);
     }
@@ -113,10 +278,31 @@ public class ConnectionManager {
   @SneakyThrows
   private ConnectionWorker startAndInitializeWorker(ConnectionWorker worker) {
     worker.selector = Selector.open();
+    if (reusePortAcceptors && serverSocketChannel != null) {
+      bindAcceptChannel(worker);
+    }
+
     worker.start();
     return worker;
   }
 
+  // Give the worker its own server socket on the bound address, the first worker uses the bound socket
+  private synchronized void bindAcceptChannel(ConnectionWorker worker) throws IOException {
+    ServerSocketChannel channel;
+    if (!boundChannelAssigned) {
+      channel = serverSocketChannel;
+      boundChannelAssigned = true;
+    } else {
+      channel = ServerSocketChannel.open();
+      channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+      channel.bind(serverSocketChannel.getLocalAddress());
+      channel.configureBlocking(false);
+    }
+
+    channel.register(worker.selector, SelectionKey.OP_ACCEPT);
+    worker.acceptChannel = channel;
+  }
+
   public synchronized ConnectionManager provideWorkers(Collection<ConnectionWorker> workers) {
     workerPool.addAll(workers);
     for (ConnectionWorker worker : workers) {
@@ -137,9 +323,345 @@ public class ConnectionManager {
     return provideWorkers(workers);
   }
 
+  /**
+   * Allocate workers which handle each connection on its own virtual threads with blocking IO,
+   * connections assigned to the same worker share its buffer pools and decode budget.
+   *
+   * @see VirtualThreadConnectionWorker
+   */
+  public synchronized ConnectionManager allocateVirtualThreadWorkers(int count) {
+    List<ConnectionWorker> workers = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      workers.add(new VirtualThreadConnectionWorker(this));
+    }
+
+    return provideWorkers(workers);
+  }
+
+  /**
+   * Get the pool of reusable outbound connections per remote address.
+   */
+  public ConnectionPool getConnectionPool() {
+    ConnectionPool connectionPool = this.connectionPool;
+    if (connectionPool == null) {
+      synchronized (this) {
+        connectionPool = this.connectionPool;
+        if (connectionPool == null) {
+          this.connectionPool = connectionPool = new ConnectionPool(this);
+        }
+      }
+    }
+
+    return connectionPool;
+  }
+
+  /// The open connections of this manager, may be iterated from any thread
+  public Collection<Connection> getConnections() {
+    return Collections.unmodifiableSet(connections);
+  }
+
+  /**
+   * Send the given payload as a frame on the given channel to every open connection of this manager.
+   * May be called from any thread.
+   *
+   * @see #broadcast(short, ByteBuffer, Iterable)
+   */
+  public int broadcast(short channel, ByteBuffer payload) {
+    return broadcast(channel, payload, connections);
+  }
+
+  /**
+   * Send the given payload as a frame on the given channel to each of the given connections.
+   * The frame is encoded once into a pooled direct buffer and every connection writes it from a
+   * read-only view of that buffer, so the payload is neither copied nor compressed per connection.
+   * The buffer is returned to the pool once the last connection wrote or dropped it.
+   * May be called from any thread.
+   *
+   * @param channel The channel id.
+   * @param payload The payload, which is copied before this returns.
+   * @param targets The connections to send the frame to.
+   * @return The amount of connections the frame was queued on.
+   */
+  public int broadcast(short channel, ByteBuffer payload, Iterable<Connection> targets) {
+    final int size = payload.remaining();
+    if (size > Connection.MAX_FRAME_SIZE - Connection.CHANNEL_SIZE) {
+      throw new IllegalArgumentException("Frame payload of size " + size + " exceeds the maximum frame size");
+    }
+
+    final ByteBuffer buffer = broadcastBufferProvider.acquire(Connection.HEADER_SIZE + Connection.CHANNEL_SIZE + size);
+    buffer.putInt(Connection.CHANNEL_SIZE + size)
+        .putShort(channel)
+        .put(payload.duplicate())
+        .flip();
+
+    // the reference of the caller is held until every connection holds its own
+    final RefCountedByteBuffer shared = new RefCountedByteBuffer(buffer, broadcastBufferProvider);
+    final ByteBuffer frame = buffer.asReadOnlyBuffer();
+    int count = 0;
+    for (Connection connection : targets) {
+      shared.retain();
+      if (connection.enqueue(OutboundFrame.encoded(channel, frame.duplicate(), shared))) {
+        count++;
+      }
+    }
+
+    shared.release();
+    return count;
+  }
+
+  /// Trim the buffer pools shared by the workers once per trim interval, called by the workers
+  void trimBuffers(long now) {
+    final long last = lastBufferTrimNanos.get();
+    if (now - last >= ConnectionWorker.BUFFER_TRIM_INTERVAL_NANOS && lastBufferTrimNanos.compareAndSet(last, now)) {
+      broadcastBufferProvider.trim();
+    }
+  }
+
+  /// Called when a connection of this manager is created or closed
+  void connectionOpened(Connection connection) {
+    connections.add(connection);
+  }
+
+  void connectionClosed(Connection connection) {
+    connections.remove(connection);
+  }
+
+  /**
+   * Take a snapshot of the metrics of every worker.
+   */
+  public List<WorkerMetrics.Snapshot> workerMetrics() {
+    final List<WorkerMetrics.Snapshot> snapshots = new ArrayList<>();
+    for (ConnectionWorker worker : List.copyOf(workerPool)) {
+      snapshots.add(worker.metricsSnapshot());
+    }
+
+    return snapshots;
+  }
+
+  /**
+   * Take a snapshot of the metrics of every open connection.
+   */
+  public List<ConnectionMetrics.Snapshot> connectionMetrics() {
+    final List<ConnectionMetrics.Snapshot> snapshots = new ArrayList<>();
+    for (Connection connection : connections) {
+      snapshots.add(connection.metricsSnapshot());
+    }
+
+    return snapshots;
+  }
+
   public synchronized ConnectionManager workerSelector(WorkerSelector workerSelector) {
     this.workerSelector = workerSelector;
     return this;
   }
 
+  /**
+   * Let every worker accept connections on its own server socket, bound to the same address
+   * with SO_REUSEPORT, instead of accepting them on a single acceptor thread which hands each
+   * connection to a worker. The kernel distributes incoming connections between the sockets,
+   * so the worker selector is not used. Falls back to the single acceptor if SO_REUSEPORT is
+   * not supported. Must be set before binding.
+   */
+  public synchronized ConnectionManager reusePortAcceptors(boolean enabled) {
+    if (serverSocketChannel != null) {
+      throw new IllegalStateException("The acceptor mode must be set before binding");
+    }
+
+    this.reusePortAcceptors = enabled;
+    return this;
+  }
+
+  /**
+   * Periodically move connections from a worker whose load stays above the given ratio
+   * of the average worker load to the least loaded worker, replacing the previous
+   * rebalancing schedule. Connections are moved between frames, see
+   * {@link ConnectionWorker#migrate(Connection, ConnectionWorker)}.
+   *
+   * @param period The time between checks of the worker loads.
+   * @param unit The unit of the period.
+   * @param ratio The ratio of the average load above which a worker is overloaded, greater than 1.
+   * @param metric The load which is balanced.
+   */
+  public synchronized ConnectionManager enableRebalancing(long period, TimeUnit unit, double ratio, ConnectionRebalancer.LoadMetric metric) {
+    final ConnectionRebalancer rebalancer = new ConnectionRebalancer(this, ratio, metric);
+    disableRebalancing();
+    rebalancingExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "ConnectionRebalancer");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    rebalancingExecutor.scheduleAtFixedRate(() -> {
+      try {
+        rebalancer.run();
+      } catch (Exception ex) {
+        TODO.todoErrorHandling("An exception occurred while rebalancing connections", ex);
+      }
+    }, period, period, unit);
+    return this;
+  }
+
+  public synchronized ConnectionManager disableRebalancing() {
+    if (rebalancingExecutor != null) {
+      rebalancingExecutor.shutdownNow();
+      rebalancingExecutor = null;
+    }
+
+    return this;
+  }
+
+  /**
+   * Set the bounds between which the read buffer capacity of each connection adapts to
+   * the amount of data it receives, rounded up to powers of two.
+   */
+  public synchronized ConnectionManager readBufferSizes(int minimum, int initial, int maximum) {
+    new AdaptiveReadBufferSizer(minimum, initial, maximum); // validate
+    this.readBufferMinimum = minimum;
+    this.readBufferInitial = initial;
+    this.readBufferMaximum = maximum;
+    return this;
+  }
+
+  /**
+   * Set the minimum payload size for outgoing frames to be compressed, frames
+   * are only sent compressed if that reduces their size.
+   *
+   * @param threshold The threshold in bytes, or a negative value to disable compression.
+   */
+  public ConnectionManager compressionThreshold(int threshold) {
+    this.compressionThreshold = threshold;
+    return this;
+  }
+
+  /**
+   * Set the policy deciding when the frames sent on a connection are written, see {@link FlushPolicy}.
+   * Applies to connections opened afterwards, {@link FlushPolicy#endOfLoop()} by default.
+   *
+   * @param policy The policy.
+   */
+  public ConnectionManager flushPolicy(FlushPolicy policy) {
+    this.flushPolicy = policy;
+    return this;
+  }
+
+  /**
+   * Set the minimum size of received frames to be passed to a {@link StreamingFrameHandler}
+   * in chunks as they arrive, instead of being buffered as a whole. Only uncompressed frames
+   * which do not fit the read buffer are streamed.
+   *
+   * @param threshold The threshold in bytes.
+   */
+  public ConnectionManager streamingThreshold(int threshold) {
+    this.streamingThreshold = threshold;
+    return this;
+  }
+
+  /**
+   * Set the time workers keep polling their selector without blocking once they ran out of
+   * events, before blocking in select. Spinning avoids the wakeup latency of a blocked select
+   * for deployments with dedicated cores, at the cost of burning CPU while idle.
+   *
+   * @param time The time to spin, 0 to block right away.
+   * @param unit The unit of the time.
+   */
+  public ConnectionManager selectSpin(long time, TimeUnit unit) {
+    this.selectSpinNanos = unit.toNanos(time);
+    return this;
+  }
+
+  /**
+   * Set the time after which outbound connection attempts fail with a
+   * {@link java.net.SocketTimeoutException}, 10 seconds by default.
+   *
+   * @param time The timeout, 0 to wait until the operating system gives up.
+   * @param unit The unit of the time.
+   */
+  public ConnectionManager connectTimeout(long time, TimeUnit unit) {
+    this.connectTimeoutNanos = unit.toNanos(time);
+    return this;
+  }
+
+  /**
+   * Set the time after which connections which received nothing are closed, which detects
+   * dead peers and half-open connections. Peers which may be idle for longer should send
+   * keepalive frames, see {@link #keepaliveInterval(long, TimeUnit)}.
+   *
+   * Applies to connections assigned to a worker afterwards, disabled by default.
+   *
+   * @param time The timeout, 0 to disable it.
+   * @param unit The unit of the time.
+   */
+  public ConnectionManager idleTimeout(long time, TimeUnit unit) {
+    this.idleTimeoutNanos = unit.toNanos(time);
+    return this;
+  }
+
+  /**
+   * Set the time after which an empty frame is sent on the {@link Connection#KEEPALIVE_CHANNEL}
+   * to connections nothing else was sent to, so the idle timeout of the peer is not reached.
+   * This should be well below the idle timeout of the peer.
+   *
+   * Applies to connections assigned to a worker afterwards, disabled by default.
+   *
+   * @param time The interval, 0 to disable keepalive frames.
+   * @param unit The unit of the time.
+   */
+  public ConnectionManager keepaliveInterval(long time, TimeUnit unit) {
+    this.keepaliveIntervalNanos = unit.toNanos(time);
+    return this;
+  }
+
+  /**
+   * Set whether the acceptor and workers let their selectors pass the ready keys directly to
+   * a reused handler, see {@link Selector#select(Consumer)}, instead of collecting them in the
+   * selected-key set and iterating it. This avoids allocating an iterator per select and the
+   * hash set operations per ready key. Enabled by default.
+   */
+  public ConnectionManager optimizedSelection(boolean enabled) {
+    this.optimizedSelection = enabled;
+    return this;
+  }
+
+  /**
+   * Set the executor completed frames are processed on, for example a fixed thread pool or
+   * {@link java.util.concurrent.Executors#newVirtualThreadPerTaskExecutor()}. The frames of each
+   * connection are still processed one at a time and in order.
+   *
+   * Each connection buffers up to the handler queue capacity of frames, once that is exceeded
+   * reading from the connection is paused until half of the queue was processed.
+   *
+   * @param executor The executor, or null to process frames on the worker threads.
+   */
+  public ConnectionManager handlerExecutor(Executor executor) {
+    this.handlerExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Set the amount of frames each connection buffers for the handler executor.
+   */
+  public ConnectionManager handlerQueueCapacity(int capacity) {
+    this.handlerQueueCapacity = capacity;
+    return this;
+  }
+
+  /**
+   * Set the limits for the total size of decode buffers held by the frames of a single
+   * connection and of all connections of a worker. Once a limit would be exceeded, reading
+   * from the affected connections is paused until decode buffers are released. A single
+   * frame is always allowed if nothing is held, so frames larger than the budget still pass.
+   *
+   * @param perConnection The limit per connection in bytes.
+   * @param perWorker The limit per worker in bytes.
+   */
+  public ConnectionManager decodeBudget(long perConnection, long perWorker) {
+    this.connectionDecodeBudget = perConnection;
+    this.workerDecodeBudget = perWorker;
+    return this;
+  }
+
+  AdaptiveReadBufferSizer newReadBufferSizer() {
+    return new AdaptiveReadBufferSizer(readBufferMinimum, readBufferInitial, readBufferMaximum);
+  }
+
 }
@@ -0,0 +1,86 @@
+package com.orbyfied.slate.network;
+
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic counters of a single connection.
+ *
+ * The inbound counters are only written by the thread reading the connection and the
+ * outbound counters only by the thread flushing it, so they are updated without atomic
+ * read-modify-write operations. They may be read from any thread.
+ */
+public final class ConnectionMetrics {
+
+  /* Inbound, written by the reading thread */
+  final AtomicLong bytesIn = new AtomicLong();
+  final AtomicLong framesIn = new AtomicLong();
+  final AtomicLong reads = new AtomicLong();
+
+  /* Outbound, written by the flushing thread */
+  final AtomicLong bytesOut = new AtomicLong();
+  final AtomicLong framesOut = new AtomicLong();
+  final AtomicLong writes = new AtomicLong();
+
+  // Add to a counter with a single writer
+  static void add(AtomicLong counter, long amount) {
+    counter.setRelease(counter.getPlain() + amount);
+  }
+
+  /// Called by the reading thread after a read from the socket
+  void recordRead(int bytes) {
+    add(reads, 1);
+    add(bytesIn, bytes);
+  }
+
+  /// Called by the reading thread for every completed incoming frame
+  void recordFrameIn() {
+    add(framesIn, 1);
+  }
+
+  /// Called by the flushing thread after a write to the socket
+  void recordWrite(long bytes, int frames) {
+    add(writes, 1);
+    add(bytesOut, bytes);
+    add(framesOut, frames);
+  }
+
+  public long bytesIn() {
+    return bytesIn.get();
+  }
+
+  public long bytesOut() {
+    return bytesOut.get();
+  }
+
+  public long framesIn() {
+    return framesIn.get();
+  }
+
+  public long framesOut() {
+    return framesOut.get();
+  }
+
+  /**
+   * A point in time view of the counters of a connection.
+   *
+   * @param remoteAddress The address of the peer, null if it is unknown.
+   * @param bytesIn The amount of bytes read from the socket.
+   * @param bytesOut The amount of bytes written to the socket.
+   * @param framesIn The amount of completed incoming frames.
+   * @param framesOut The amount of frames written completely.
+   * @param reads The amount of reads from the socket.
+   * @param writes The amount of writes to the socket.
+   * @param decodeBytesOutstanding The size of the decode buffers held by frames of the connection.
+   */
+  public record Snapshot(SocketAddress remoteAddress, long bytesIn, long bytesOut, long framesIn, long framesOut,
+                         long reads, long writes, long decodeBytesOutstanding) {
+
+    /// The average amount of reads from the socket per completed frame
+    public double readsPerFrame() {
+      return framesIn == 0 ? reads : (double) reads / framesIn;
+    }
+
+  }
+
+}
@@ -0,0 +1,130 @@
+package com.orbyfied.slate.network;
+
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps reusable outbound connections per remote address, so callers share established
+ * connections instead of opening one per request. Connections may be used by any amount
+ * of callers at once as frames are sent whole, so they are not borrowed exclusively.
+ *
+ * Each address is given a fixed amount of connection slots which are used in turns.
+ * A slot whose connection failed to connect or was closed is reconnected the next
+ * time it is used, so the pool recovers from lost connections lazily.
+ */
+public final class ConnectionPool {
+
+  /// The default amount of connections per remote address
+  public static final int DEFAULT_CONNECTIONS_PER_ENDPOINT = 1;
+
+  final ConnectionManager manager;
+
+  /// The connection slots of each remote address
+  private final Map<SocketAddress, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+  /// The amount of connections per remote address, applies to addresses first used afterwards
+  private volatile int connectionsPerEndpoint = DEFAULT_CONNECTIONS_PER_ENDPOINT;
+
+  ConnectionPool(ConnectionManager manager) {
+    this.manager = manager;
+  }
+
+  // The connection slots of a remote address
+  final class Endpoint {
+
+    final SocketAddress address;
+    final AtomicReferenceArray<CompletableFuture<Connection>> slots;
+    final AtomicInteger next = new AtomicInteger(0);
+
+    Endpoint(SocketAddress address, int size) {
+      this.address = address;
+      this.slots = new AtomicReferenceArray<>(size);
+    }
+
+    // Get the connection of the next slot, connecting it if it is empty or its connection was lost
+    CompletableFuture<Connection> acquire() {
+      final int slot = Math.floorMod(next.getAndIncrement(), slots.length());
+      while (true) {
+        final CompletableFuture<Connection> current = slots.get(slot);
+        if (current != null && isUsable(current)) {
+          return current;
+        }
+
+        final CompletableFuture<Connection> connecting = manager.connect(address);
+        if (slots.compareAndSet(slot, current, connecting)) {
+          return connecting;
+        }
+
+        // another caller replaced the slot first, use its connection instead
+        connecting.thenAccept(Connection::disconnect);
+      }
+    }
+
+    void close() {
+      for (int i = 0; i < slots.length(); i++) {
+        final CompletableFuture<Connection> future = slots.getAndSet(i, null);
+        if (future != null) {
+          future.thenAccept(Connection::disconnect);
+        }
+      }
+    }
+
+  }
+
+  // Whether the connection of the given slot is open or still being established
+  private static boolean isUsable(CompletableFuture<Connection> future) {
+    if (!future.isDone()) {
+      return true;
+    }
+
+    return !future.isCompletedExceptionally() && future.join().isOpen();
+  }
+
+  /**
+   * Set the amount of connections opened to each remote address, which are used in turns.
+   * Applies to addresses which are first used afterwards.
+   */
+  public ConnectionPool connectionsPerEndpoint(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("Invalid connection count " + count);
+    }
+
+    this.connectionsPerEndpoint = count;
+    return this;
+  }
+
+  /**
+   * Get a pooled connection to the given address, connecting to it if there is
+   * no open connection. May be called from any thread.
+   *
+   * @param address The remote address.
+   * @return The future completed with the connection once it is established.
+   */
+  public CompletableFuture<Connection> get(SocketAddress address) {
+    return endpoints.computeIfAbsent(address, a -> new Endpoint(a, connectionsPerEndpoint)).acquire();
+  }
+
+  /**
+   * Close the pooled connections to the given address and forget it.
+   */
+  public void remove(SocketAddress address) {
+    final Endpoint endpoint = endpoints.remove(address);
+    if (endpoint != null) {
+      endpoint.close();
+    }
+  }
+
+  /**
+   * Close every pooled connection.
+   */
+  public void close() {
+    for (SocketAddress address : endpoints.keySet()) {
+      remove(address);
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+package com.orbyfied.slate.network;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Periodically checks the load of the workers of a connection manager and moves
+ * connections from a worker whose load stays far above the average to the least
+ * loaded worker.
+ *
+ * @see ConnectionManager#enableRebalancing(long, java.util.concurrent.TimeUnit, double, LoadMetric)
+ */
+public final class ConnectionRebalancer implements Runnable {
+
+  /**
+   * The load of workers and connections which is balanced.
+   */
+  public enum LoadMetric {
+    /// The amount of connections per worker
+    CONNECTIONS,
+    /// The recent read throughput per worker, connections are weighed by the bytes they read
+    THROUGHPUT
+  }
+
+  /// The amount of consecutive checks a worker has to be overloaded for before connections are moved
+  public static final int OVERLOADED_CHECKS = 2;
+  /// The minimum read throughput in bytes per second for a worker to be considered overloaded
+  public static final double MINIMUM_THROUGHPUT = 64 * 1024;
+
+  final ConnectionManager manager;
+  final double ratio;           // The ratio of the average load above which a worker is overloaded
+  final LoadMetric metric;
+
+  // The worker which was overloaded in the last checks, only accessed by the rebalancing thread
+  private ConnectionWorker overloaded;
+  private int overloadedChecks;
+
+  public ConnectionRebalancer(ConnectionManager manager, double ratio, LoadMetric metric) {
+    if (ratio <= 1) {
+      throw new IllegalArgumentException("Invalid overload ratio " + ratio + ", must be greater than 1");
+    }
+
+    this.manager = manager;
+    this.ratio = ratio;
+    this.metric = metric;
+  }
+
+  private double load(ConnectionWorker worker) {
+    return metric == LoadMetric.CONNECTIONS ? worker.connectionCount() : worker.recentBytesPerSecond();
+  }
+
+  @Override
+  public void run() {
+    final List<ConnectionWorker> pool = List.copyOf(manager.getWorkerPool());
+    if (pool.size() < 2) {
+      return;
+    }
+
+    ConnectionWorker most = null, least = null;
+    double max = -1, min = Double.MAX_VALUE, total = 0;
+    int count = 0;
+    for (ConnectionWorker worker : pool) {
+      if (!worker.isActive()) {
+        continue;
+      }
+
+      final double load = load(worker);
+      total += load;
+      count++;
+      if (load > max) {
+        max = load;
+        most = worker;
+      }
+
+      if (load < min) {
+        min = load;
+        least = worker;
+      }
+    }
+
+    final double mean = total / Math.max(1, count);
+    final boolean balanced = most == null || most == least || max <= ratio * mean ||
+        (metric == LoadMetric.THROUGHPUT ? max < MINIMUM_THROUGHPUT : max - min < 2);
+    if (balanced) {
+      overloaded = null;
+      overloadedChecks = 0;
+      return;
+    }
+
+    // only act on load which stays high, not on a single spike
+    if (most != overloaded) {
+      overloaded = most;
+      overloadedChecks = 0;
+    }
+
+    if (++overloadedChecks < OVERLOADED_CHECKS) {
+      return;
+    }
+
+    // move half of the difference to the least loaded worker
+    overloadedChecks = 0;
+    final double share = (max - min) / 2 / max;
+    final ConnectionWorker source = most;
+    final ConnectionWorker target = least;
+    source.execute(() -> shed(source, target, share));
+  }
+
+  // Move the given share of the load of the source worker to the target, runs on the source worker
+  private void shed(ConnectionWorker source, ConnectionWorker target, double share) {
+    final Collection<Connection> connections = source.connections();
+    final List<Connection> candidates = new ArrayList<>(connections.size());
+    long totalWeight = 0;
+    for (Connection connection : connections) {
+      final long weight = weight(connection);
+      totalWeight += weight;
+      if (weight > 0 && connection.canMigrate()) {
+        candidates.add(connection);
+      }
+    }
+
+    // move the heaviest connections which fit the share, so a single link
+    // does not bounce between workers
+    candidates.sort((a, b) -> Long.compare(weight(b), weight(a)));
+    final double goal = share * totalWeight;
+    long moved = 0;
+    for (Connection connection : candidates) {
+      final long weight = weight(connection);
+      if (moved + weight <= goal && source.migrateNow(connection, target)) {
+        moved += weight;
+      }
+    }
+
+    for (Connection connection : connections) {
+      connection.rebalanceSampleBytes = connection.getMetrics().bytesIn();
+    }
+  }
+
+  // The load of the given connection since the last rebalancing
+  private long weight(Connection connection) {
+    return metric == LoadMetric.CONNECTIONS ? 1 : connection.getMetrics().bytesIn() - connection.rebalanceSampleBytes;
+  }
+
+}
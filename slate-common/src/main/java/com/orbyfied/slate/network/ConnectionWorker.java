@@ -4,24 +4,180 @@ import com.orbyfied.slate.project.TODO;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 
+import java.io.IOException;
+import java.net.SocketAddress;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 @RequiredArgsConstructor
 public abstract class ConnectionWorker extends ConnectionWorkerContext implements Runnable {
 
+  /// The maximum amount of frames written by a single gathering write
+  public static final int MAX_GATHERED_FRAMES = 64;
+
   private final ConnectionManager manager;
 
   /// The connections waiting to be accepted by this worker
   private final ConcurrentLinkedDeque<Connection> registrationQueue = new ConcurrentLinkedDeque<>();
 
+  /// The connections with queued frames waiting to be flushed by this worker
+  private final ConcurrentLinkedDeque<Connection> flushQueue = new ConcurrentLinkedDeque<>();
+
+  /// The connections whose queued frames wait for the deadline of their flush policy and
+  /// the earliest of these deadlines, only accessed by the worker thread
+  private final ArrayDeque<Connection> delayedFlushes = new ArrayDeque<>();
+  private long nextDelayedFlushNanos;
+
+  /// Tasks submitted to be run on the worker thread
+  private final ConcurrentLinkedDeque<Runnable> taskQueue = new ConcurrentLinkedDeque<>();
+
+  /// The connections registered with this worker, only accessed by the worker thread
+  private final Set<Connection> connections = new LinkedHashSet<>();
+
+  /// The maximum amount of connections accepted by a worker per readiness event of its server socket,
+  /// so established connections are not starved during bursts of connection attempts
+  public static final int MAX_ACCEPTS_PER_SELECT = 64;
+
+  /// The server socket this worker accepts connections on itself, null if connections are handed to it
+  ServerSocketChannel acceptChannel;
+
+  /// The duration of a tick and the amount of buckets of the timing wheel of a worker
+  public static final long TIMER_TICK_NANOS = 100_000_000L; // 100ms
+  public static final int TIMER_WHEEL_SIZE = 512;
+
+  /// The timeouts of this worker like connection heartbeats, only accessed by the worker thread
+  protected final HashedTimingWheel timers = new HashedTimingWheel(TIMER_TICK_NANOS, TIMER_WHEEL_SIZE, System.nanoTime());
+  /// The timeouts submitted by other threads, linked through the timeouts themselves so submitting does not allocate
+  private final AtomicReference<HashedTimingWheel.Timeout> submittedTimeouts = new AtomicReference<>();
+
+  /// The interval the buffer pools of a worker are trimmed at, dropping the buffers not needed since the
+  /// last trim. Checked once per loop iteration, so an idle worker does not wake up to trim its pools.
+  public static final long BUFFER_TRIM_INTERVAL_NANOS = 30_000_000_000L; // 30s
+
+  // The time the buffer pools were last trimmed, only accessed by the worker thread
+  private long lastBufferTrimNanos = System.nanoTime();
+
+  /// The reused gathering write state, only accessed by the worker thread
+  private final WriteBatch writeBatch = new WriteBatch(MAX_GATHERED_FRAMES);
+
   protected Selector selector;
 
+  /// Handles the ready keys in the optimized selection mode, reused so selecting does not allocate
+  private final Consumer<SelectionKey> selectedKeyHandler = this::processKey;
+
+  /// The time the first ready key of the current loop iteration was handled at, 0 before
+  private long loopStartNanos;
+
+  /// The thread currently running this worker
+  protected volatile Thread workerThread;
+
+  /// Whether the worker thread is awake or was already woken up, so submitting threads only
+  /// wake the selector once per select. Set to false by the worker right before it blocks.
+  private final AtomicBoolean wakeupPending = new AtomicBoolean(true);
+  /// The time the worker wakes up by itself from its current select, delayed
+  /// flushes only wake it if they are due earlier. Set before it blocks.
+  private volatile long selectDeadlineNanos;
+
   public void submitConnection(Connection connection) {
+    connectionCount.incrementAndGet();
     registrationQueue.add(connection);
-    selector.wakeup();
+    wakeup();
+  }
+
+  // Make sure the worker notices submitted work, waking it from select at most once
+  private void wakeup() {
+    if (Thread.currentThread() != workerThread && wakeupPending.compareAndSet(false, true)) {
+      selector.wakeup();
+    }
+  }
+
+  // Whether connections, tasks, flushes or timeouts were submitted
+  private boolean hasSubmittedWork() {
+    return !registrationQueue.isEmpty() || !taskQueue.isEmpty() || !flushQueue.isEmpty() ||
+        submittedTimeouts.get() != null;
+  }
+
+  @Override
+  public void scheduleFlush(Connection connection) {
+    final WriteCoalescer coalescer = connection.coalescer;
+    if (connection.flushScheduled.compareAndSet(false, true)) {
+      flushQueue.add(connection);
+      if (coalescer.isDueBefore(selectDeadlineNanos)) {
+        wakeup();
+      }
+    } else if (coalescer.isFull()) {
+      wakeup(); // queued, but waiting for its deadline
+    }
+  }
+
+  @Override
+  public boolean flushNow(Connection connection) {
+    // the write batch is in use if the frame was sent while flushing
+    if (Thread.currentThread() != workerThread || connection.owner != this || writeBatch.frameCount != 0) {
+      return false;
+    }
+
+    try {
+      connection.flushWrites(writeBatch);
+    } catch (Exception ex) {
+      TODO.todoErrorHandling("An exception occurred while writing to connection " + connection.getChannel(), ex);
+      connection.close();
+    }
+
+    return true;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    taskQueue.add(task);
+    wakeup();
+  }
+
+  @Override
+  public void scheduleTimeout(HashedTimingWheel.Timeout timeout, long deadline) {
+    if (Thread.currentThread() == workerThread) {
+      timers.schedule(timeout, deadline);
+      return;
+    }
+
+    timeout.submittedDeadline = deadline;
+    HashedTimingWheel.Timeout head;
+    do {
+      head = submittedTimeouts.get();
+      timeout.submittedNext = head;
+    } while (!submittedTimeouts.compareAndSet(head, timeout));
+
+    wakeup();
+  }
+
+  @Override
+  public void cancelTimeout(HashedTimingWheel.Timeout timeout) {
+    if (Thread.currentThread() == workerThread) {
+      timers.cancel(timeout);
+    }
+  }
+
+  // Schedule the timeouts submitted by other threads
+  private void scheduleSubmittedTimeouts() {
+    HashedTimingWheel.Timeout timeout = submittedTimeouts.getAndSet(null);
+    while (timeout != null) {
+      final HashedTimingWheel.Timeout next = timeout.submittedNext;
+      timeout.submittedNext = null;
+      timers.schedule(timeout, timeout.submittedDeadline);
+      timeout = next;
+    }
   }
 
   @Override
@@ -31,7 +187,86 @@ public abstract class ConnectionWorker extends ConnectionWorkerContext implement
 
   @Override
   public void remove(Connection connection) {
+    if (connections.remove(connection)) {
+      connectionCount.decrementAndGet();
+    }
+
+    unwatch(connection);
+  }
+
+  /// Start running the timeouts of the given connection like its idleness checks on this worker, only called on the worker thread
+  void watch(Connection connection) {
+    connection.timerWheel = timers;
+    connection.scheduleHeartbeat();
+  }
+
+  /// Stop running the timeouts of the given connection, only called on the worker thread
+  void unwatch(Connection connection) {
+    if (connection.timerWheel == timers) {
+      timers.cancel(connection.heartbeat);
+      timers.cancel(connection.rateLimitResume);
+      connection.timerWheel = null;
+    }
+  }
 
+  /// The connections registered with this worker, only to be accessed on the worker thread
+  Collection<Connection> connections() {
+    return connections;
+  }
+
+  /**
+   * Move the given connection from this worker to the target worker. The connection is
+   * moved once it is handled by this worker and between frames, if it is in the middle of
+   * a frame the migration is skipped. May be called from any thread.
+   *
+   * @param connection The connection.
+   * @param target The worker to move the connection to.
+   */
+  public void migrate(Connection connection, ConnectionWorker target) {
+    execute(() -> migrateNow(connection, target));
+  }
+
+  /**
+   * Move the given connection to the target worker if possible, only to be called on the
+   * thread of this worker outside of the processing of the connection.
+   *
+   * The key is cancelled and the connection including its buffered data and queued frames
+   * is handed to the target, which registers it like a new connection once its selector
+   * dropped any cancelled key of the channel.
+   *
+   * @return Whether the connection was moved.
+   */
+  boolean migrateNow(Connection connection, ConnectionWorker target) {
+    if (target == this || !target.isActive() || !target.acceptsMigrations() ||
+        !connections.contains(connection) || !connection.canMigrate()) {
+      return false;
+    }
+
+    connection.selectionKey.cancel();
+    connection.selectionKey = null;
+    connection.owner = null;
+    connections.remove(connection);
+    connectionCount.decrementAndGet();
+    unwatch(connection);
+
+    // the target flushes the connection once it was registered
+    if (flushQueue.remove(connection)) {
+      connection.flushScheduled.set(false);
+    }
+
+    // the connection points to the target before it is handed over, so tasks
+    // submitted through this worker afterwards are forwarded to the target
+    connection.migrated(target);
+    target.submitConnection(connection);
+    return true;
+  }
+
+  /**
+   * Check whether connections may be migrated to this worker, workers which do
+   * not handle their connections through the selector may not support it.
+   */
+  protected boolean acceptsMigrations() {
+    return true;
   }
 
   /**
@@ -44,38 +279,341 @@ public abstract class ConnectionWorker extends ConnectionWorkerContext implement
    */
   public abstract void start();
 
+  // Register the given connection with the selector of this worker, only called on the worker thread
+  private void register(Connection connection) {
+    connection.owner = this;
+    connections.add(connection);
+    try {
+      connection.selectionKey = connection.getChannel().register(
+          selector,
+          connection.interestOps(),
+          connection
+      );
+    } catch (Exception ex) {
+      TODO.todoErrorHandling("An exception occurred while registering connection " + connection.getChannel(), ex);
+      remove(connection);
+      connection.close();
+      return;
+    }
+
+    connection.assigned(this);
+    watch(connection);
+  }
+
+  /**
+   * Open a connection to the given address which is handled by this worker. May be
+   * called from any thread, the connection is established on the worker.
+   *
+   * @param address The address to connect to.
+   * @return The future completed with the connection once it is established.
+   */
+  public CompletableFuture<Connection> connect(SocketAddress address) {
+    final SocketChannel channel;
+    try {
+      channel = SocketChannel.open();
+    } catch (IOException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+
+    final PendingConnect pending = new PendingConnect(channel, address);
+    execute(() -> {
+      final long timeout = manager.getConnectTimeoutNanos();
+      if (timeout > 0) {
+        timers.schedule(pending, System.nanoTime() + timeout);
+      }
+
+      beginConnect(pending);
+    });
+
+    return pending.future;
+  }
+
+  /**
+   * Start the given connection attempt, only called on the worker thread. By default the
+   * channel is connected without blocking and registered for {@link SelectionKey#OP_CONNECT}.
+   * The attempt is finished on the worker thread with {@link #connected(PendingConnect)} or
+   * {@link #connectFailed(PendingConnect, Throwable)}.
+   *
+   * @param pending The connection attempt.
+   */
+  protected void beginConnect(PendingConnect pending) {
+    try {
+      pending.channel.configureBlocking(false);
+      if (pending.channel.connect(pending.address)) {
+        connected(pending);
+        return;
+      }
+
+      pending.channel.register(selector, SelectionKey.OP_CONNECT, pending);
+    } catch (IOException ex) {
+      connectFailed(pending, ex);
+    }
+  }
+
+  // Finish establishing the connection of the given attempt once its channel is connectable
+  private void finishConnect(SelectionKey key) {
+    final PendingConnect pending = (PendingConnect) key.attachment();
+    try {
+      if (!pending.channel.finishConnect()) {
+        return;
+      }
+    } catch (IOException ex) {
+      connectFailed(pending, ex);
+      return;
+    }
+
+    connected(pending);
+  }
+
+  /**
+   * Called on the worker thread if the given attempt could not be connected.
+   */
+  protected final void connectFailed(PendingConnect pending, Throwable cause) {
+    timers.cancel(pending);
+    pending.fail(cause);
+  }
+
+  /**
+   * Called on the worker thread once the channel of the given attempt is connected, the
+   * connection is handled by this worker like an accepted connection.
+   *
+   * @param pending The connection attempt.
+   */
+  protected final void connected(PendingConnect pending) {
+    timers.cancel(pending);
+    if (pending.future.isDone()) {
+      // timed out or cancelled in the meantime
+      pending.fail(new IOException("Connecting to " + pending.address + " was abandoned"));
+      return;
+    }
+
+    // a channel registered for OP_CONNECT keeps its key, which is updated on registration
+    final Connection connection = new Connection(manager, pending.channel);
+    accepted(connection);
+    pending.complete(connection);
+  }
+
+  // Accept the pending connections on the server socket of this worker, handling them on this worker
+  private void acceptConnections() {
+    for (int i = 0; i < MAX_ACCEPTS_PER_SELECT; i++) {
+      final SocketChannel client;
+      try {
+        client = acceptChannel.accept();
+        if (client == null) {
+          return;
+        }
+
+        client.configureBlocking(false);
+      } catch (IOException ex) {
+        TODO.todoErrorHandling("An exception occurred while accepting a connection", ex);
+        return;
+      }
+
+      accepted(new Connection(manager, client));
+    }
+  }
+
+  /**
+   * Called on the worker thread for every connection this worker accepted on its
+   * own server socket or connected itself, registers it with this worker by default.
+   *
+   * @param connection The accepted connection.
+   */
+  protected void accepted(Connection connection) {
+    connectionCount.incrementAndGet();
+    register(connection);
+  }
+
   @SneakyThrows
   @Override
   public void run() {
+    workerThread = Thread.currentThread();
     try {
       while (manager.isActive()) {
-        selector.select();
-
-        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
-        while (iterator.hasNext()) {
-          SelectionKey key = iterator.next();
-          iterator.remove();
+        // in the optimized mode the selected keys are processed while selecting
+        final boolean optimized = manager.isOptimizedSelection();
+        awaitEvents(optimized);
+        if (loopStartNanos == 0) {
+          loopStartNanos = System.nanoTime();
+        }
 
-          if (key.isReadable()) {
-            Connection connection = (Connection) key.attachment();
-            connection.readKey(key);
-          }
+        // register connections first, so their first read is not delayed by another select
+        registerSubmittedConnections();
+        if (!optimized) {
+          processSelectedKeys();
         }
 
-        // check for submitted connections
-        Connection connection;
-        while ((connection = registrationQueue.poll()) != null) {
-          connection.assigned(this);
-          connection.getChannel().register(
-              selector,
-              SelectionKey.OP_READ,
-              connection
-          );
+        scheduleSubmittedTimeouts();
+        final long now = System.nanoTime();
+        timers.advance(now);
+        if (now - lastBufferTrimNanos >= BUFFER_TRIM_INTERVAL_NANOS) {
+          trimBuffers(now);
         }
+
+        runSubmittedTasks();
+        flushScheduledConnections();
+
+        metrics.recordLoopLatency(System.nanoTime() - loopStartNanos);
+        loopStartNanos = 0;
       }
     } catch (Exception ex) {
       TODO.todoErrorHandling(ex);
     }
   }
 
+  // Drop the pooled buffers of this worker and the manager which were not needed since the last trim
+  private void trimBuffers(long now) {
+    lastBufferTrimNanos = now;
+    decodeBufferProvider.trim();
+    readBufferProvider.trim();
+    manager.trimBuffers(now);
+  }
+
+  // Wait until IO events are ready, work was submitted or the next timer tick is due, spinning
+  // on selectNow for the configured time before blocking. If consuming, the ready keys are
+  // passed to the key handler instead of being added to the selected-key set.
+  private void awaitEvents(boolean consume) throws IOException {
+    final long spinNanos = manager.getSelectSpinNanos();
+    if (spinNanos > 0) {
+      final long deadline = System.nanoTime() + spinNanos;
+      do {
+        final int ready = consume ? selector.selectNow(selectedKeyHandler) : selector.selectNow();
+        if (ready > 0 || hasSubmittedWork()) {
+          return;
+        }
+
+        Thread.onSpinWait();
+      } while (System.nanoTime() - deadline < 0);
+    }
+
+    // work submitted after this point wakes the selector, work submitted before is seen by the check
+    final long now = System.nanoTime();
+    final long timeout = selectTimeoutMillis(now);
+    selectDeadlineNanos = now + (timeout == 0 ? Long.MAX_VALUE / 2 : timeout * 1_000_000);
+    wakeupPending.set(false);
+    if (hasSubmittedWork()) {
+      if (consume) selector.selectNow(selectedKeyHandler); else selector.selectNow();
+    } else {
+      if (consume) selector.select(selectedKeyHandler, timeout); else selector.select(timeout);
+    }
+
+    wakeupPending.set(true);
+  }
+
+  // The time to block in select until the next timer tick or delayed flush, 0 to block until woken up
+  private long selectTimeoutMillis(long now) {
+    long nanos = timers.isEmpty() ? -1 : timers.nanosUntilNextTick(now);
+    if (!delayedFlushes.isEmpty()) {
+      final long flushNanos = Math.max(0, nextDelayedFlushNanos - now);
+      nanos = nanos < 0 ? flushNanos : Math.min(nanos, flushNanos);
+    }
+
+    if (nanos < 0) {
+      return 0;
+    }
+
+    return Math.max(1, (nanos + 999_999) / 1_000_000);
+  }
+
+  private void processSelectedKeys() {
+    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+    while (iterator.hasNext()) {
+      SelectionKey key = iterator.next();
+      iterator.remove();
+      processKey(key);
+    }
+  }
+
+  // Handle the ready operations of the given key
+  private void processKey(SelectionKey key) {
+    if (loopStartNanos == 0) {
+      loopStartNanos = System.nanoTime();
+    }
+
+    if (key.isValid() && key.isAcceptable()) {
+      acceptConnections();
+      return;
+    }
+
+    if (key.isValid() && key.isConnectable()) {
+      finishConnect(key);
+      return;
+    }
+
+    Connection connection = (Connection) key.attachment();
+    try {
+      if (key.isValid() && key.isWritable()) {
+        connection.flushWrites(writeBatch);
+      }
+
+      if (key.isValid() && key.isReadable()) {
+        connection.readKey(key);
+      }
+    } catch (Exception ex) {
+      TODO.todoErrorHandling("An exception occurred while handling IO for connection " + connection.getChannel(), ex);
+      connection.close();
+    }
+  }
+
+  // Register the submitted and migrated connections
+  private void registerSubmittedConnections() {
+    Connection connection;
+    while ((connection = registrationQueue.poll()) != null) {
+      register(connection);
+    }
+  }
+
+  private void runSubmittedTasks() {
+    Runnable task;
+    while ((task = taskQueue.poll()) != null) {
+      try {
+        task.run();
+      } catch (Exception ex) {
+        TODO.todoErrorHandling("An exception occurred while running a task on a connection worker", ex);
+      }
+    }
+  }
+
+  // Write the frames queued since the last iteration and the delayed frames which became due
+  private void flushScheduledConnections() {
+    final long now = System.nanoTime();
+    nextDelayedFlushNanos = now + Long.MAX_VALUE / 2;
+    for (int i = delayedFlushes.size(); i > 0; i--) {
+      flushScheduledConnection(delayedFlushes.poll(), now);
+    }
+
+    Connection connection;
+    while ((connection = flushQueue.poll()) != null) {
+      flushScheduledConnection(connection, now);
+    }
+  }
+
+  private void flushScheduledConnection(Connection connection, long now) {
+    if (connection.owner != this) {
+      // the connection was migrated, the worker it was moved to flushes it
+      connection.flushScheduled.set(false);
+      final ConnectionWorkerContext owner = connection.owner;
+      if (owner != null && !connection.sendQueue.isEmpty()) {
+        owner.scheduleFlush(connection);
+      }
+
+      return;
+    }
+
+    final long delay = connection.coalescer.nanosUntilDue(now);
+    if (delay > 0 && connection.isOpen()) {
+      // stays scheduled, so sending more frames does not queue it again
+      delayedFlushes.add(connection);
+      nextDelayedFlushNanos = Math.min(nextDelayedFlushNanos, now + delay);
+      return;
+    }
+
+    try {
+      connection.flushWrites(writeBatch);
+    } catch (Exception ex) {
+      TODO.todoErrorHandling("An exception occurred while writing to connection " + connection.getChannel(), ex);
+      connection.close();
+    }
+  }
+
 }
@@ -2,14 +2,52 @@ package com.orbyfied.slate.network;
 
 import com.orbyfied.slate.util.buffer.ByteBufferProvider;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 public abstract class ConnectionWorkerContext {
 
   public abstract ConnectionManager manager();
 
-  /// Buffer pool for long-lived, large capacity buffers which may hold entire packets for the duration of their processing
-  protected final ByteBufferProvider decodeBufferProvider = ByteBufferProvider.pooledDirect(4096);
+  /// The largest decode buffer capacity which is pooled, larger frames use unpooled buffers
+  public static final int MAX_POOLED_DECODE_CAPACITY = 1024 * 1024 * 4; // 4 MB
+
+  /// Buffer pool for long-lived, large capacity buffers which may hold entire packets for the duration of their processing,
+  /// thread safe as frames may be released on other threads
+  protected final ByteBufferProvider decodeBufferProvider;
   /// Buffer pool for potentially short-lived, low capacity intermediate socket IO buffers
-  protected final ByteBufferProvider readBufferProvider = ByteBufferProvider.pooledDirect(1024);
+  protected final ByteBufferProvider readBufferProvider;
+
+  /// The context which owns the buffer pools, decode budget and load counters used by this context,
+  /// the context itself unless it was created for a part of a worker like a single connection
+  protected final ConnectionWorkerContext sharedContext;
+
+  protected ConnectionWorkerContext() {
+    this.decodeBufferProvider = ByteBufferProvider.sizeClassedDirect(4096, MAX_POOLED_DECODE_CAPACITY);
+    this.readBufferProvider = ByteBufferProvider.sizeClassedDirect(AdaptiveReadBufferSizer.DEFAULT_MINIMUM, AdaptiveReadBufferSizer.DEFAULT_MAXIMUM);
+    this.sharedContext = this;
+  }
+
+  /**
+   * Create a context which shares the buffer pools, decode budget and load
+   * counters of the given context, with its own compression contexts.
+   *
+   * @param shared The context to share the resources of.
+   */
+  protected ConnectionWorkerContext(ConnectionWorkerContext shared) {
+    this.sharedContext = shared.sharedContext;
+    this.decodeBufferProvider = sharedContext.decodeBufferProvider;
+    this.readBufferProvider = sharedContext.readBufferProvider;
+  }
+
+  /// The compression contexts of this worker, only to be used on the worker thread
+  protected final FrameCompression compression = new FrameCompression();
+
+  public FrameCompression compression() {
+    return compression;
+  }
 
   public ByteBufferProvider decodeBufferProvider() {
     return decodeBufferProvider;
@@ -19,6 +57,145 @@ public abstract class ConnectionWorkerContext {
     return readBufferProvider;
   }
 
+  /// The total size of the decode buffers currently held by frames of the connections of this worker
+  protected final AtomicLong decodeBytesOutstanding = new AtomicLong(0);
+  /// The part of the outstanding decode bytes held by streams of the connections reassembling messages
+  protected final AtomicLong streamDecodeBytes = new AtomicLong(0);
+  /// The connections which suspended reading until decode buffers are released
+  protected final ConcurrentLinkedQueue<Connection> decodeBudgetWaiters = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean decodeBudgetTaskScheduled = new AtomicBoolean(false);
+  private final Runnable decodeBudgetTask = this::notifyDecodeBudgetWaiters;
+
+  public long decodeBytesOutstanding() {
+    return decodeBytesOutstanding.get();
+  }
+
+  /// Called when decode buffers accounted to this worker are released, may be called from any thread
+  void releaseDecodeBudget(int size) {
+    decodeBytesOutstanding.addAndGet(-size);
+    if (!decodeBudgetWaiters.isEmpty() && decodeBudgetTaskScheduled.compareAndSet(false, true)) {
+      execute(decodeBudgetTask);
+    }
+  }
+
+  /// Called on the worker thread by a connection which is waiting for decode buffers to be released
+  void awaitDecodeBudget(Connection connection) {
+    decodeBudgetWaiters.add(connection);
+  }
+
+  // Let the waiting connections check whether their decode buffers fit the budget now
+  private void notifyDecodeBudgetWaiters() {
+    decodeBudgetTaskScheduled.set(false);
+    Connection connection;
+    for (int count = decodeBudgetWaiters.size(); count > 0 && (connection = decodeBudgetWaiters.poll()) != null; count--) {
+      connection.decodeBudgetReleased(this);
+    }
+  }
+
+  /// The time constant of the moving average of the read throughput
+  public static final long THROUGHPUT_AVERAGE_NANOS = 5_000_000_000L; // 5s
+  /// The minimum time between two samples of the read throughput
+  public static final long THROUGHPUT_SAMPLE_NANOS = 100_000_000L;    // 100ms
+
+  /// The amount of connections assigned to this worker
+  protected final AtomicInteger connectionCount = new AtomicInteger(0);
+  /// The traffic metrics of the connections of this worker
+  protected final WorkerMetrics metrics = new WorkerMetrics();
+
+  // The exponentially weighted moving average of the bytes read per second and the last sample it includes
+  private double bytesPerSecond;
+  private long throughputSampleNanos = System.nanoTime();
+  private long throughputSampleBytes;
+
+  public int connectionCount() {
+    return connectionCount.get();
+  }
+
+  /// The metrics of this context, shared with the contexts created from it
+  public WorkerMetrics metrics() {
+    return sharedContext.metrics;
+  }
+
+  /**
+   * Take a snapshot of the metrics of this worker.
+   */
+  public WorkerMetrics.Snapshot metricsSnapshot() {
+    return sharedContext.metrics.snapshot(sharedContext);
+  }
+
+  /**
+   * Get the moving average of the bytes read per second by this worker over the last seconds,
+   * the average is sampled lazily so this may be called from any thread.
+   */
+  public synchronized double recentBytesPerSecond() {
+    final long now = System.nanoTime();
+    final long elapsed = now - throughputSampleNanos;
+    if (elapsed < THROUGHPUT_SAMPLE_NANOS) {
+      return bytesPerSecond;
+    }
+
+    // weigh the rate since the last sample by the time it covers, so that
+    // infrequent sampling decays the average correctly
+    final long bytes = metrics.bytesIn();
+    final double rate = (bytes - throughputSampleBytes) * 1e9 / elapsed;
+    final double alpha = 1 - Math.exp(-(double) elapsed / THROUGHPUT_AVERAGE_NANOS);
+    bytesPerSecond += alpha * (rate - bytesPerSecond);
+    throughputSampleNanos = now;
+    throughputSampleBytes = bytes;
+    return bytesPerSecond;
+  }
+
   public abstract void remove(Connection connection);
 
+  /**
+   * Schedule the given timeout on the timing wheel of the worker, may be called from any
+   * thread. Contexts created for a part of a worker use the wheel of the worker.
+   *
+   * @param timeout The timeout, which is not scheduled.
+   * @param deadline The time in nanoseconds after which it expires.
+   */
+  public void scheduleTimeout(HashedTimingWheel.Timeout timeout, long deadline) {
+    if (sharedContext == this) {
+      throw new UnsupportedOperationException("This worker context has no timing wheel");
+    }
+
+    sharedContext.scheduleTimeout(timeout, deadline);
+  }
+
+  /**
+   * Cancel the given timeout if this is called on the thread of the timing wheel it is scheduled
+   * on, otherwise it stays scheduled and has to ignore its expiry. May be called from any thread.
+   */
+  public void cancelTimeout(HashedTimingWheel.Timeout timeout) {
+    if (sharedContext != this) {
+      sharedContext.cancelTimeout(timeout);
+    }
+  }
+
+  /**
+   * Make sure the queued frames of the given connection are going to be written
+   * by this worker. May be called from any thread.
+   *
+   * @param connection The connection with pending writes.
+   */
+  public abstract void scheduleFlush(Connection connection);
+
+  /**
+   * Write the queued frames of the given connection right away if this is called on the
+   * thread flushing it, used for the {@link FlushPolicy#immediate()} policy.
+   *
+   * @param connection The connection with pending writes.
+   * @return Whether the connection was flushed, if not a flush has to be scheduled.
+   */
+  public boolean flushNow(Connection connection) {
+    return false;
+  }
+
+  /**
+   * Run the given task on the worker thread. May be called from any thread.
+   *
+   * @param task The task.
+   */
+  public abstract void execute(Runnable task);
+
 }
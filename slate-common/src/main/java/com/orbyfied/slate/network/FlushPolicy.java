@@ -0,0 +1,81 @@
+package com.orbyfied.slate.network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the frames queued on a connection are written to its socket. Writing frames
+ * as soon as possible minimizes their latency, while letting them wait for more frames to be
+ * queued lets the worker write many small frames with a single gathering write.
+ *
+ * @see WriteCoalescer
+ * @see ConnectionManager#flushPolicy(FlushPolicy)
+ * @see Connection#flushPolicy(FlushPolicy)
+ */
+public final class FlushPolicy {
+
+  static final FlushPolicy IMMEDIATE = new FlushPolicy(true, 0, 0);
+  static final FlushPolicy END_OF_LOOP = new FlushPolicy(false, 0, 0);
+
+  final boolean immediate; // Whether frames sent on the thread flushing the connection are written right away
+  final long delayNanos;   // The maximum time queued frames wait for more frames, 0 to not wait
+  final int maxBytes;      // The amount of queued bytes which are written without waiting any longer
+
+  private FlushPolicy(boolean immediate, long delayNanos, int maxBytes) {
+    this.immediate = immediate;
+    this.delayNanos = delayNanos;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Write frames sent on the worker thread, e.g. by frame handlers, right away instead
+   * of at the end of the loop iteration. Frames sent from other threads wake the worker.
+   */
+  public static FlushPolicy immediate() {
+    return IMMEDIATE;
+  }
+
+  /**
+   * Write the frames queued on a connection once per iteration of the worker loop, after
+   * the ready connections were handled, so the frames sent while handling them are written
+   * together. Frames sent from other threads wake the worker. This is the default.
+   */
+  public static FlushPolicy endOfLoop() {
+    return END_OF_LOOP;
+  }
+
+  /**
+   * Let the frames queued on a connection wait for more frames for up to the given time after
+   * the first of them was queued, or until at least the given amount of bytes was queued. Frames
+   * sent from other threads only wake the worker once they are due.
+   *
+   * The deadline is checked on every iteration of the worker loop, a worker which is otherwise
+   * idle waits for it in select, which only has a precision of milliseconds.
+   *
+   * @param delay The maximum time to wait.
+   * @param unit The unit of the time.
+   * @param maxBytes The amount of bytes to write without waiting any longer.
+   * @return The policy.
+   */
+  public static FlushPolicy deadline(long delay, TimeUnit unit, int maxBytes) {
+    if (delay <= 0 || maxBytes <= 0) {
+      throw new IllegalArgumentException("Flush deadline and byte limit have to be positive");
+    }
+
+    return new FlushPolicy(false, unit.toNanos(delay), maxBytes);
+  }
+
+  public boolean isDelayed() {
+    return delayNanos != 0;
+  }
+
+  @Override
+  public String toString() {
+    if (immediate) {
+      return "FlushPolicy(immediate)";
+    }
+
+    return delayNanos == 0 ? "FlushPolicy(endOfLoop)" :
+        "FlushPolicy(delay=" + (delayNanos / 1000) + "us, maxBytes=" + maxBytes + ")";
+  }
+
+}
@@ -0,0 +1,131 @@
+package com.orbyfied.slate.network;
+
+import com.orbyfied.slate.util.buffer.ByteBufferProvider;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses frame payloads for the {@link ConnectionFrame#COMPRESSED}
+ * header flag, reusing the native deflate contexts between frames.
+ *
+ * Compressed payloads are encoded as [uncompressedSize: int32][deflate stream].
+ *
+ * @implNote Not thread safe, each worker owns an instance. Compression and decompression
+ * use separate contexts which are created on first use, so one thread may compress while
+ * another decompresses.
+ */
+public final class FrameCompression {
+
+  /// The default minimum payload size for a frame to be compressed
+  public static final int DEFAULT_THRESHOLD = 1024;
+
+  // The native contexts, created on first use as their state is large
+  private Deflater deflater;
+  private Inflater inflater;
+
+  // Scratch buffer used to detect trailing data after a fully inflated payload
+  final ByteBuffer trailingCheck = ByteBuffer.allocate(1);
+
+  private Deflater deflater() {
+    return deflater != null ? deflater : (deflater = new Deflater(Deflater.BEST_SPEED));
+  }
+
+  private Inflater inflater() {
+    return inflater != null ? inflater : (inflater = new Inflater());
+  }
+
+  /**
+   * Compress the remaining bytes of the given payload into a buffer acquired from the
+   * given provider. The position of the payload is not modified.
+   *
+   * @param payload The payload to compress.
+   * @param provider The provider to acquire the output buffer from.
+   * @return The flipped compressed payload, or null if compression would not reduce its size.
+   */
+  public ByteBuffer compress(ByteBuffer payload, ByteBufferProvider provider) {
+    final int size = payload.remaining();
+    if (size <= 4) {
+      return null;
+    }
+
+    final ByteBuffer out = provider.acquire(size).limit(size);
+    out.putInt(size);
+
+    final Deflater deflater = deflater();
+    deflater.reset();
+    deflater.setInput(payload.duplicate());
+    deflater.finish();
+    while (!deflater.finished()) {
+      if (!out.hasRemaining()) {
+        // not worth compressing
+        provider.release(out);
+        return null;
+      }
+
+      deflater.deflate(out);
+    }
+
+    return out.flip();
+  }
+
+  /**
+   * Decompress the remaining bytes of the given compressed payload into a buffer acquired
+   * from the given provider.
+   *
+   * @param compressed The compressed payload.
+   * @param provider The provider to acquire the output buffer from.
+   * @param maxSize The maximum allowed uncompressed size.
+   * @return The flipped uncompressed payload.
+   * @throws DataFormatException If the payload is malformed or exceeds the maximum size.
+   */
+  public ByteBuffer decompress(ByteBuffer compressed, ByteBufferProvider provider, int maxSize) throws DataFormatException {
+    if (compressed.remaining() < 4) {
+      throw new DataFormatException("Compressed payload is missing the uncompressed size");
+    }
+
+    final int size = compressed.getInt();
+    if (size < 0 || size > maxSize) {
+      throw new DataFormatException("Uncompressed size " + size + " exceeds the maximum of " + maxSize);
+    }
+
+    final ByteBuffer out = provider.acquire(size).limit(size);
+    try {
+      final Inflater inflater = inflater();
+      inflater.reset();
+      inflater.setInput(compressed);
+      while (out.hasRemaining()) {
+        if (inflater.inflate(out) == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataFormatException("Compressed payload ended after " + out.position() + " of " + size + " bytes");
+        }
+      }
+
+      if (!inflater.finished() && inflater.inflate(trailingCheck.clear()) > 0) {
+        throw new DataFormatException("Compressed payload exceeds the uncompressed size of " + size + " bytes");
+      }
+
+      return out.flip();
+    } catch (DataFormatException ex) {
+      provider.release(out);
+      throw ex;
+    }
+  }
+
+  /**
+   * Release the native contexts of this instance, they are recreated if it is used again.
+   */
+  public void end() {
+    if (deflater != null) {
+      deflater.end();
+      deflater = null;
+    }
+
+    if (inflater != null) {
+      inflater.end();
+      inflater = null;
+    }
+  }
+
+}
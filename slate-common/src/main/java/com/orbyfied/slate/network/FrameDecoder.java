@@ -0,0 +1,18 @@
+package com.orbyfied.slate.network;
+
+/**
+ * A stage of a {@link FramePipeline} which transforms completed frames
+ * before they are dispatched to the handler of their channel.
+ */
+@FunctionalInterface
+public interface FrameDecoder {
+
+  /**
+   * Decode the given frame in place, replacing or advancing its buffer as needed.
+   *
+   * @param frame The frame.
+   * @return Whether the frame should be passed on, false if it was consumed.
+   */
+  boolean decode(ConnectionFrame frame) throws Exception;
+
+}
@@ -0,0 +1,17 @@
+package com.orbyfied.slate.network;
+
+/**
+ * Handles decoded frames received on a channel.
+ */
+@FunctionalInterface
+public interface FrameHandler {
+
+  /**
+   * Handle the given decoded frame, the buffer of the frame is positioned
+   * after the channel id and is only valid for the duration of this call.
+   *
+   * @param frame The frame.
+   */
+  void handle(ConnectionFrame frame) throws Exception;
+
+}
@@ -0,0 +1,100 @@
+package com.orbyfied.slate.network;
+
+import com.orbyfied.slate.project.TODO;
+
+import java.util.Arrays;
+
+/**
+ * Decodes completed frames and dispatches them to the handler registered for their channel.
+ *
+ * Handlers are stored in a dense array indexed by the unsigned channel id, so dispatching
+ * a frame requires no boxing, hashing or allocation. Registration copies the arrays and may
+ * be done from any thread, dispatching reads the current arrays without locking.
+ */
+public final class FramePipeline {
+
+  static final FrameDecoder[] NO_DECODERS = new FrameDecoder[0];
+  static final FrameHandler[] NO_HANDLERS = new FrameHandler[0];
+
+  /// The handler for frames on channels without a registered handler
+  static final FrameHandler LOG_UNHANDLED = frame ->
+      TODO.todoEventLogging("FramePipeline", "WARN: No handler registered for channel " + frame.channel() + ", dropping frame of size " + frame.size());
+
+  private volatile FrameDecoder[] decoders = NO_DECODERS;
+  private volatile FrameHandler[] handlers = NO_HANDLERS;
+  private volatile FrameHandler unhandled = LOG_UNHANDLED;
+
+  /**
+   * Append a decoder stage to this pipeline.
+   */
+  public synchronized FramePipeline addDecoder(FrameDecoder decoder) {
+    FrameDecoder[] newDecoders = Arrays.copyOf(decoders, decoders.length + 1);
+    newDecoders[decoders.length] = decoder;
+    this.decoders = newDecoders;
+    return this;
+  }
+
+  /**
+   * Register the handler for the given channel, replacing any previous handler.
+   *
+   * @param channel The channel id.
+   * @param handler The handler, or null to remove the current handler.
+   */
+  public synchronized FramePipeline handler(short channel, FrameHandler handler) {
+    final int index = channel & 0xFFFF;
+    FrameHandler[] newHandlers = handlers;
+    if (index >= newHandlers.length) {
+      if (handler == null) {
+        return this;
+      }
+
+      newHandlers = Arrays.copyOf(newHandlers, Math.min(0x10000, Math.max(16, Integer.highestOneBit(index) << 1)));
+    } else {
+      newHandlers = newHandlers.clone();
+    }
+
+    newHandlers[index] = handler;
+    this.handlers = newHandlers;
+    return this;
+  }
+
+  /**
+   * Set the handler for frames on channels without a registered handler.
+   */
+  public FramePipeline unhandled(FrameHandler handler) {
+    this.unhandled = handler;
+    return this;
+  }
+
+  public FrameHandler handler(short channel) {
+    final FrameHandler[] handlers = this.handlers;
+    final int index = channel & 0xFFFF;
+    return index < handlers.length ? handlers[index] : null;
+  }
+
+  /**
+   * Run the given frame through the decoders and dispatch it to the handler of its channel.
+   *
+   * @param frame The frame, with the channel id already decoded.
+   */
+  public void dispatch(ConnectionFrame frame) throws Exception {
+    final FrameDecoder[] decoders = this.decoders;
+    for (int i = 0; i < decoders.length; i++) {
+      if (!decoders[i].decode(frame)) {
+        return;
+      }
+    }
+
+    final FrameHandler[] handlers = this.handlers;
+    final int index = frame.channel & 0xFFFF;
+    FrameHandler handler = index < handlers.length ? handlers[index] : null;
+    if (handler == null) {
+      handler = unhandled;
+    }
+
+    if (handler != null) {
+      handler.handle(frame);
+    }
+  }
+
+}
@@ -0,0 +1,200 @@
+package com.orbyfied.slate.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timing wheel for large amounts of timeouts which are rescheduled often,
+ * like the heartbeats of connections. Timeouts are intrusive nodes, so scheduling,
+ * rescheduling and cancelling them is constant time and does not allocate.
+ *
+ * Timeouts expire on the first call to {@link #advance(long)} after the tick containing
+ * their deadline has passed, so they fire up to one tick late but never early.
+ *
+ * @implNote Not thread safe, a worker owns its instance and advances it from its loop.
+ */
+public final class HashedTimingWheel {
+
+  /**
+   * A timeout which can be scheduled on a wheel, at most once at a time.
+   */
+  public abstract static class Timeout {
+
+    HashedTimingWheel wheel; // The wheel this timeout is scheduled on, null if not scheduled
+    int bucket;
+    long rounds;             // The amount of revolutions of the wheel left until the timeout expires
+    long deadline;
+    Timeout prev, next;
+    boolean expiring;        // Whether it was collected by the current tick and not cancelled since
+
+    // Links timeouts submitted from other threads until the owner of the wheel schedules them
+    Timeout submittedNext;
+    long submittedDeadline;
+
+    public boolean isScheduled() {
+      return wheel != null;
+    }
+
+    public long deadline() {
+      return deadline;
+    }
+
+    /**
+     * Called once the deadline of this timeout passed, the timeout
+     * may be rescheduled from this method.
+     *
+     * @param now The current time in nanoseconds.
+     */
+    protected abstract void expired(long now);
+
+  }
+
+  final long tickNanos;
+  final Timeout[] buckets;
+  final int mask;
+
+  final long startNanos;  // The time of tick 0
+  long tick;              // The next tick to be processed
+  int size;               // The amount of scheduled timeouts
+
+  // The timeouts collected by the current tick, reused
+  private final List<Timeout> expired = new ArrayList<>();
+
+  /**
+   * @param tickNanos The duration of a tick, the resolution of the timeouts.
+   * @param wheelSize The amount of buckets, rounded up to a power of two.
+   * @param now The current time in nanoseconds.
+   */
+  public HashedTimingWheel(long tickNanos, int wheelSize, long now) {
+    if (tickNanos <= 0 || wheelSize < 1 || wheelSize > 1 << 24) {
+      throw new IllegalArgumentException("Invalid tick duration " + tickNanos + " or wheel size " + wheelSize);
+    }
+
+    this.tickNanos = tickNanos;
+    this.buckets = new Timeout[Math.max(1, Integer.highestOneBit(wheelSize - 1) << 1)];
+    this.mask = buckets.length - 1;
+    this.startNanos = now;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Schedule the given timeout, moving it if it is already scheduled.
+   *
+   * @param timeout The timeout.
+   * @param deadline The time in nanoseconds after which it expires.
+   */
+  public void schedule(Timeout timeout, long deadline) {
+    if (timeout.wheel == this) {
+      cancel(timeout);
+    } else if (timeout.wheel != null) {
+      throw new IllegalStateException("Timeout is scheduled on another wheel");
+    } else if (timeout.expiring) {
+      timeout.expiring = false; // rescheduled before it expired in the current tick
+    }
+
+    // the tick containing the deadline, at the earliest the next tick to be processed
+    final long ticks = Math.max(tick, Math.floorDiv(deadline - startNanos, tickNanos));
+    final int bucket = (int) (ticks & mask);
+    timeout.wheel = this;
+    timeout.bucket = bucket;
+    timeout.rounds = (ticks - tick) / buckets.length;
+    timeout.deadline = deadline;
+
+    timeout.prev = null;
+    timeout.next = buckets[bucket];
+    if (timeout.next != null) {
+      timeout.next.prev = timeout;
+    }
+
+    buckets[bucket] = timeout;
+    size++;
+  }
+
+  /**
+   * Cancel the given timeout if it is scheduled on this wheel.
+   */
+  public void cancel(Timeout timeout) {
+    timeout.expiring = false;
+    if (timeout.wheel != this) {
+      return;
+    }
+
+    if (timeout.prev != null) {
+      timeout.prev.next = timeout.next;
+    } else {
+      buckets[timeout.bucket] = timeout.next;
+    }
+
+    if (timeout.next != null) {
+      timeout.next.prev = timeout.prev;
+    }
+
+    timeout.wheel = null;
+    timeout.prev = timeout.next = null;
+    size--;
+  }
+
+  /**
+   * Get the time until the next tick is due, for waiting on other events in the meantime.
+   *
+   * @param now The current time in nanoseconds.
+   * @return The nanoseconds until the next tick, 0 if it is due.
+   */
+  public long nanosUntilNextTick(long now) {
+    return Math.max(0, startNanos + (tick + 1) * tickNanos - now);
+  }
+
+  /**
+   * Process the ticks which passed until the given time, expiring the due timeouts.
+   *
+   * @param now The current time in nanoseconds.
+   */
+  public void advance(long now) {
+    final long target = (now - startNanos) / tickNanos;
+    if (size == 0) {
+      tick = Math.max(tick, target); // nothing to expire in the passed ticks
+      return;
+    }
+
+    while (tick < target) {
+      // timeouts scheduled while processing this tick go into later ticks
+      final int bucket = (int) (tick++ & mask);
+      if (buckets[bucket] == null) {
+        continue;
+      }
+
+      Timeout timeout = buckets[bucket];
+      while (timeout != null) {
+        final Timeout next = timeout.next;
+        if (timeout.rounds <= 0) {
+          cancel(timeout);
+          timeout.expiring = true;
+          expired.add(timeout);
+        } else {
+          timeout.rounds--;
+        }
+
+        timeout = next;
+      }
+
+      // expire after unlinking, so the callbacks may modify the wheel
+      for (int i = 0, n = expired.size(); i < n; i++) {
+        final Timeout expiredTimeout = expired.get(i);
+        if (expiredTimeout.expiring) {
+          expiredTimeout.expiring = false;
+          expiredTimeout.expired(now);
+        }
+      }
+
+      expired.clear();
+    }
+  }
+
+}
@@ -0,0 +1,264 @@
+package com.orbyfied.slate.network;
+
+import com.orbyfied.slate.project.TODO;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A logical stream of messages on a channel of a {@link Connection}, sharing the connection
+ * with other streams. Messages are sent in chunks which are interleaved with the chunks of
+ * the other streams by priority, and every stream has its own flow control window.
+ *
+ * The window is the amount of message bytes which may be sent before the peer acknowledges
+ * them, which it does once the chunks were handled. A stream whose peer falls behind stops
+ * sending without holding up the other streams of the connection.
+ *
+ * Messages split into chunks are reassembled before they are handled. A message is dropped
+ * if it exceeds the maximum frame size of the trust level of the connection, or if its buffer
+ * does not fit the decode budget of the connection, the remaining chunks of it are skipped.
+ *
+ * @see StreamMultiplexer
+ */
+public final class MultiplexedStream {
+
+  /* Priorities, streams with a higher priority send their chunks first */
+  public static final int PRIORITY_LOW = -10;   // Bulk transfers
+  public static final int PRIORITY_NORMAL = 0;
+  public static final int PRIORITY_HIGH = 10;   // Small control messages
+
+  final StreamMultiplexer multiplexer;
+  final short id;
+  final int priority;
+  final StreamHandler handler;
+
+  /// Whether this stream is open, messages are only sent and received while it is
+  volatile boolean open = true;
+
+  // Messages submitted to be sent, may be appended to by any thread
+  final ConcurrentLinkedQueue<ByteBuffer> pendingMessages = new ConcurrentLinkedQueue<>();
+  // The message currently being chunked, only accessed by the thread flushing the connection
+  ByteBuffer sendingMessage;
+  // The amount of bytes which may be sent until the peer acknowledges more, added to by the reading thread
+  final AtomicInteger sendWindow = new AtomicInteger(StreamMultiplexer.INITIAL_WINDOW);
+
+  // The message being reassembled from its chunks and the amount of received bytes
+  // which were not acknowledged yet, only accessed by the thread dispatching the frames
+  private ByteBuffer assembly;
+  private int unacknowledged;
+  // Whether the chunks of a dropped message are skipped until its last chunk, only accessed by the thread dispatching the frames
+  private boolean discarding;
+
+  // The capacity of the assembly accounted against the decode budget and the context to release it to, guarded by this
+  private int assemblyBudget;
+  private ConnectionWorkerContext assemblyBudgetContext;
+
+  MultiplexedStream(StreamMultiplexer multiplexer, short id, int priority, StreamHandler handler) {
+    this.multiplexer = multiplexer;
+    this.id = id;
+    this.priority = priority;
+    this.handler = handler;
+  }
+
+  public Connection connection() {
+    return multiplexer.connection;
+  }
+
+  public short id() {
+    return id;
+  }
+
+  public int priority() {
+    return priority;
+  }
+
+  public boolean isOpen() {
+    return open;
+  }
+
+  /// The amount of bytes which may currently be sent without waiting for the peer
+  public int sendWindow() {
+    return sendWindow.get();
+  }
+
+  /**
+   * Queue the given message to be sent on this stream. The message is written from its
+   * position to its limit and must not be modified until it was written. May be called
+   * from any thread, the message is chunked and written by the worker of the connection.
+   *
+   * @param message The message.
+   * @return Whether the message was queued, false if the stream or connection is closed.
+   */
+  public boolean send(ByteBuffer message) {
+    if (message.remaining() > Connection.MAX_FRAME_SIZE) {
+      throw new IllegalArgumentException("Message of size " + message.remaining() + " exceeds the maximum message size");
+    }
+
+    if (!open || !multiplexer.connection.isOpen()) {
+      return false;
+    }
+
+    pendingMessages.add(message);
+    multiplexer.connection.queued(message.remaining());
+    return true;
+  }
+
+  /**
+   * Close this stream locally, dropping the messages which were not sent yet. The
+   * peer is not notified, frames it sends on the channel go to the pipeline again.
+   */
+  public void close() {
+    open = false;
+    multiplexer.remove(this);
+    pendingMessages.clear();
+    releaseAssemblyBudget(); // the assembly itself is dropped by the dispatching thread
+  }
+
+  /// Whether a chunk may be sent, only called by the thread flushing the connection
+  boolean isReady() {
+    return (sendingMessage != null || !pendingMessages.isEmpty()) && sendWindow.get() > 0;
+  }
+
+  /// Cut the next chunk from the queued messages within the window, only called by the thread flushing the connection
+  OutboundFrame nextChunk() {
+    ByteBuffer message = sendingMessage;
+    if (message == null) {
+      message = sendingMessage = pendingMessages.poll();
+      if (message == null) {
+        return null;
+      }
+    }
+
+    final int size = Math.min(message.remaining(), Math.min(StreamMultiplexer.CHUNK_SIZE, sendWindow.get()));
+    if (size <= 0 && message.hasRemaining()) {
+      return null; // exhausted the window
+    }
+
+    final ByteBuffer chunk = message.slice(message.position(), size);
+    message.position(message.position() + size);
+    sendWindow.addAndGet(-size);
+
+    final boolean last = !message.hasRemaining();
+    if (last) {
+      sendingMessage = null;
+    }
+
+    return new OutboundFrame(id, chunk, last ? 0 : ConnectionFrame.CONTINUED, null);
+  }
+
+  /// Add the bytes acknowledged by the peer to the window, called by the thread reading the connection
+  void windowUpdate(int increment) {
+    final int window = sendWindow.addAndGet(increment);
+    if (window > 0 && window - increment <= 0 && open) {
+      multiplexer.connection.scheduleFlush(); // the stream was blocked on the window
+    }
+  }
+
+  /// Handle a chunk received on this stream, only called by the thread dispatching the frames of the connection
+  void received(ConnectionFrame frame) throws Exception {
+    final ByteBuffer chunk = frame.buffer;
+    final int size = chunk.remaining();
+    try {
+      if (discarding) {
+        // skip the rest of a dropped message
+        discarding = frame.isContinued();
+        return;
+      }
+
+      if (!frame.isContinued() && assembly == null) {
+        // a complete message, handled without copying
+        handler.handle(this, chunk);
+        return;
+      }
+
+      if (!append(chunk)) {
+        TODO.todoEventLogging("MultiplexedStream", "WARN: Message on stream " + id + " exceeds the maximum message size at trust " +
+            multiplexer.connection.getTrust() + " or the decode budget, dropping it");
+        assembly = null;
+        releaseAssemblyBudget();
+        discarding = frame.isContinued();
+        return;
+      }
+
+      if (frame.isContinued()) {
+        return;
+      }
+
+      final ByteBuffer message = assembly.flip();
+      assembly = null;
+      try {
+        handler.handle(this, message);
+      } finally {
+        releaseAssemblyBudget();
+      }
+    } finally {
+      acknowledge(size);
+    }
+  }
+
+  // Append the given chunk to the message being reassembled, growing the buffer as needed
+  // @return Whether it was appended, false if the message exceeds the size or budget limits
+  private boolean append(ByteBuffer chunk) {
+    final int maxSize = Math.min(Connection.MAX_FRAME_SIZE, multiplexer.connection.getTrust().getMaxFrameSize());
+    final int position = assembly != null ? assembly.position() : 0;
+    if ((long) position + chunk.remaining() > maxSize) {
+      return false;
+    }
+
+    if (assembly == null || assembly.remaining() < chunk.remaining()) {
+      final int capacity = (int) Math.min(maxSize, assembly == null ?
+          Math.max(StreamMultiplexer.CHUNK_SIZE * 2, chunk.remaining()) :
+          Math.max((long) assembly.capacity() * 2, position + (long) chunk.remaining()));
+      if (!reserveAssemblyBudget(capacity)) {
+        return false;
+      }
+
+      final ByteBuffer grown = ByteBuffer.allocate(capacity);
+      if (assembly != null) {
+        grown.put(assembly.flip());
+      }
+
+      assembly = grown;
+    }
+
+    assembly.put(chunk);
+    return true;
+  }
+
+  // Account an assembly buffer of the given capacity against the decode budget instead of the previous one,
+  // false if it does not fit or the stream was closed
+  private synchronized boolean reserveAssemblyBudget(int capacity) {
+    releaseAssemblyBudget();
+    if (!open) {
+      return false;
+    }
+
+    final ConnectionWorkerContext context = multiplexer.connection.reserveStreamDecodeBudget(capacity);
+    if (context == null) {
+      return false;
+    }
+
+    assemblyBudget = capacity;
+    assemblyBudgetContext = context;
+    return true;
+  }
+
+  private synchronized void releaseAssemblyBudget() {
+    if (assemblyBudgetContext != null) {
+      multiplexer.connection.releaseStreamDecodeBudget(assemblyBudgetContext, assemblyBudget);
+      assemblyBudgetContext = null;
+      assemblyBudget = 0;
+    }
+  }
+
+  // Acknowledge the handled bytes to the peer once half of the window was used, so it can keep sending
+  private void acknowledge(int size) {
+    unacknowledged += size;
+    if (unacknowledged >= StreamMultiplexer.INITIAL_WINDOW / 2 && open) {
+      multiplexer.sendWindowUpdate(id, unacknowledged);
+      unacknowledged = 0;
+    }
+  }
+
+}
@@ -0,0 +1,116 @@
+package com.orbyfied.slate.network;
+
+import com.orbyfied.slate.util.buffer.ByteBufferProvider;
+import com.orbyfied.slate.util.buffer.RefCountedByteBuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame queued for transmission on a {@link Connection}, consisting of the
+ * [length+flags: int32][channel: int16] header and the payload.
+ *
+ * The payload may be replaced by its compressed form by the worker right before the
+ * frame is first written. The header is encoded into a slot of the direct header slab
+ * of the {@link WriteBatch} it is written with, so it does not need a buffer of its own.
+ * Frames broadcast to multiple connections are encoded once, including their header,
+ * and written from a view of the shared buffer as the payload.
+ */
+public final class OutboundFrame {
+
+  static final ByteBuffer NO_HEADER = ByteBuffer.allocate(0); // The header of frames encoded as a whole
+
+  /// The maximum size of an encoded header, which is the header of a call
+  static final int MAX_HEADER_SIZE = Connection.HEADER_SIZE + Connection.CHANNEL_SIZE + Connection.CALL_ID_SIZE;
+
+  final int headerSize;              // The size of the [length+flags: int32][channel: int16] header, followed by the call id for calls
+  int headerWritten;                 // The amount of header bytes written by previous partial writes
+  final short channel;               // The channel the frame is sent on
+  final long callId;                 // The call id for frames flagged as calls
+  ByteBuffer payload;                // The payload, written from position to limit
+  ByteBufferProvider owner;          // The provider to release the payload to once written, may be null
+  RefCountedByteBuffer shared;       // The buffer shared with other connections the payload is a view of, may be null
+  int flags;                         // The core header flags
+  final int size;                    // The size of the payload as submitted
+
+  boolean prepared = false;          // Whether the payload has been compressed if needed
+
+  OutboundFrame(short channel, ByteBuffer payload, int flags, ByteBufferProvider owner) {
+    this(channel, payload, flags, owner, 0);
+  }
+
+  OutboundFrame(short channel, ByteBuffer payload, int flags, ByteBufferProvider owner, long callId) {
+    this.headerSize = Connection.HEADER_SIZE + Connection.CHANNEL_SIZE +
+        ((flags & ConnectionFrame.CALL) != 0 ? Connection.CALL_ID_SIZE : 0);
+    this.channel = channel;
+    this.callId = callId;
+    this.payload = payload;
+    this.owner = owner;
+    this.flags = flags;
+    this.size = payload.remaining();
+  }
+
+  // An already encoded frame, see encoded(...)
+  private OutboundFrame(short channel, ByteBuffer frame, RefCountedByteBuffer shared) {
+    this.headerSize = 0;
+    this.channel = channel;
+    this.callId = 0;
+    this.payload = frame;
+    this.shared = shared;
+    this.size = frame.remaining() - Connection.HEADER_SIZE - Connection.CHANNEL_SIZE;
+    this.prepared = true; // neither compressed nor encoded again
+  }
+
+  /**
+   * Create a frame written from the given view of a frame which was encoded as a whole,
+   * the reference to the shared buffer held by the caller is released once it was written.
+   *
+   * @param channel The channel the frame was encoded for.
+   * @param frame The view of the encoded [header][channel][payload], written from position to limit.
+   * @param shared The shared buffer the view belongs to.
+   * @return The frame.
+   */
+  static OutboundFrame encoded(short channel, ByteBuffer frame, RefCountedByteBuffer shared) {
+    return new OutboundFrame(channel, frame, shared);
+  }
+
+  // Replace the payload, releasing the previous one
+  void replacePayload(ByteBuffer payload, ByteBufferProvider owner, int flags) {
+    release();
+    this.payload = payload;
+    this.owner = owner;
+    this.flags |= flags;
+  }
+
+  // Encode the header for the current payload into the given slot of at least MAX_HEADER_SIZE bytes,
+  // positioned after the header bytes written by previous partial writes
+  void encodeHeader(ByteBuffer slot) {
+    // a partially written header is encoded again unchanged, as none of the payload was written before it
+    slot.clear();
+    slot.putInt(0, (headerSize - Connection.HEADER_SIZE + payload.remaining()) | flags);
+    slot.putShort(Connection.HEADER_SIZE, channel);
+    if ((flags & ConnectionFrame.CALL) != 0) {
+      slot.putLong(Connection.HEADER_SIZE + Connection.CHANNEL_SIZE, callId);
+    }
+
+    slot.limit(headerSize).position(headerWritten);
+  }
+
+  // To be called once the frame has been written or dropped
+  void release() {
+    if (shared != null) {
+      shared.release();
+      shared = null;
+    } else if (owner != null) {
+      owner.release(payload);
+    }
+  }
+
+  public short channel() {
+    return channel;
+  }
+
+  public int size() {
+    return size;
+  }
+
+}
@@ -0,0 +1,68 @@
+package com.orbyfied.slate.network;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A call made with {@link Connection#call(short, java.nio.ByteBuffer, long, java.util.concurrent.TimeUnit, PendingCall)} which
+ * is waiting for its response. The call is its own entry in the timing wheel of the worker, so a
+ * call allocates nothing but itself and the request frame.
+ *
+ * Exactly one of {@link #completed(ConnectionFrame)} and {@link #failed(Throwable)} is called.
+ */
+public abstract class PendingCall extends HashedTimingWheel.Timeout {
+
+  Connection connection; // The connection the call was made on
+  long id;               // The call id, 0 before the call was made
+
+  public long id() {
+    return id;
+  }
+
+  /**
+   * Called with the response to this call on the thread dispatching the frames of the
+   * connection. The frame is discarded afterwards unless it was retained.
+   *
+   * @param response The response frame, positioned after the call id.
+   */
+  protected abstract void completed(ConnectionFrame response) throws Exception;
+
+  /**
+   * Called if the call timed out, the connection was closed or the request could not be sent.
+   *
+   * @param cause The cause.
+   */
+  protected abstract void failed(Throwable cause);
+
+  @Override
+  protected final void expired(long now) {
+    // completed calls are only cancelled on the thread of the wheel, otherwise they expire here
+    if (connection.calls.remove(id, this)) {
+      failed(new TimeoutException("Call " + id + " on connection " + connection.getChannel() + " timed out"));
+    }
+  }
+
+  /**
+   * A call completing a future with the response frame, which is retained
+   * for the future and has to be discarded by whoever consumes it.
+   */
+  static final class FutureCall extends PendingCall {
+
+    final CompletableFuture<ConnectionFrame> future = new CompletableFuture<>();
+
+    @Override
+    protected void completed(ConnectionFrame response) {
+      response.retain();
+      if (!future.complete(response)) {
+        response.discard(); // cancelled in the meantime
+      }
+    }
+
+    @Override
+    protected void failed(Throwable cause) {
+      future.completeExceptionally(cause);
+    }
+
+  }
+
+}
@@ -0,0 +1,156 @@
+package com.orbyfied.slate.network;
+
+import java.util.function.Consumer;
+
+/**
+ * The pending calls of a connection by their call id, in an open-addressed table with
+ * linear probing over primitive keys, so neither the ids nor the entries are boxed.
+ * Removal shifts the following entries back instead of leaving tombstones, so lookups
+ * stay short under constant insertion and removal.
+ *
+ * @implNote Synchronized, calls are made from any thread while responses
+ *           and timeouts are handled by the threads of the worker.
+ */
+final class PendingCallTable {
+
+  static final int INITIAL_CAPACITY = 16;
+
+  private long[] keys;          // The call ids, 0 for empty slots
+  private PendingCall[] values;
+  private int mask;
+  private int size;
+
+  PendingCallTable() {
+    this.keys = new long[INITIAL_CAPACITY];
+    this.values = new PendingCall[INITIAL_CAPACITY];
+    this.mask = INITIAL_CAPACITY - 1;
+  }
+
+  // The preferred slot of the given id, by Fibonacci hashing
+  private int slot(long id) {
+    return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  synchronized void put(long id, PendingCall call) {
+    if ((size + 1) * 2 > keys.length) {
+      resize(keys.length * 2); // keep the load factor at most 0.5
+    }
+
+    int index = slot(id);
+    while (keys[index] != 0) {
+      if (keys[index] == id) {
+        throw new IllegalStateException("Call id " + id + " is already pending");
+      }
+
+      index = (index + 1) & mask;
+    }
+
+    keys[index] = id;
+    values[index] = call;
+    size++;
+  }
+
+  synchronized PendingCall remove(long id) {
+    final int index = indexOf(id);
+    if (index < 0) {
+      return null;
+    }
+
+    final PendingCall call = values[index];
+    removeAt(index);
+    return call;
+  }
+
+  /// Remove the entry of the given id only if it is the given call
+  synchronized boolean remove(long id, PendingCall call) {
+    final int index = indexOf(id);
+    if (index < 0 || values[index] != call) {
+      return false;
+    }
+
+    removeAt(index);
+    return true;
+  }
+
+  /// Remove every call, passing each to the given action outside of the lock
+  void drain(Consumer<PendingCall> action) {
+    final PendingCall[] drained;
+    synchronized (this) {
+      if (size == 0) {
+        return;
+      }
+
+      drained = values;
+      this.keys = new long[INITIAL_CAPACITY];
+      this.values = new PendingCall[INITIAL_CAPACITY];
+      this.mask = INITIAL_CAPACITY - 1;
+      this.size = 0;
+    }
+
+    for (PendingCall call : drained) {
+      if (call != null) {
+        action.accept(call);
+      }
+    }
+  }
+
+  private int indexOf(long id) {
+    int index = slot(id);
+    long key;
+    while ((key = keys[index]) != 0) {
+      if (key == id) {
+        return index;
+      }
+
+      index = (index + 1) & mask;
+    }
+
+    return -1;
+  }
+
+  // Empty the given slot, moving back following entries which would no longer be found
+  private void removeAt(int index) {
+    int gap = index;
+    int next = (gap + 1) & mask;
+    long key;
+    while ((key = keys[next]) != 0) {
+      // move the entry into the gap if its preferred slot is not between the gap and itself
+      final int preferred = slot(key);
+      if (((next - preferred) & mask) >= ((next - gap) & mask)) {
+        keys[gap] = key;
+        values[gap] = values[next];
+        gap = next;
+      }
+
+      next = (next + 1) & mask;
+    }
+
+    keys[gap] = 0;
+    values[gap] = null;
+    size--;
+  }
+
+  private void resize(int capacity) {
+    final long[] oldKeys = keys;
+    final PendingCall[] oldValues = values;
+    this.keys = new long[capacity];
+    this.values = new PendingCall[capacity];
+    this.mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != 0) {
+        int index = slot(oldKeys[i]);
+        while (keys[index] != 0) {
+          index = (index + 1) & mask;
+        }
+
+        keys[index] = oldKeys[i];
+        values[index] = oldValues[i];
+      }
+    }
+  }
+
+}
@@ -0,0 +1,60 @@
+package com.orbyfied.slate.network;
+
+import com.orbyfied.slate.project.TODO;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An outbound connection attempt handled by a worker, which times out on the
+ * timing wheel of the worker if it is not established in time.
+ *
+ * @see ConnectionWorker#connect(SocketAddress)
+ */
+public final class PendingConnect extends HashedTimingWheel.Timeout {
+
+  final SocketChannel channel;
+  final SocketAddress address;
+  final CompletableFuture<Connection> future = new CompletableFuture<>();
+
+  PendingConnect(SocketChannel channel, SocketAddress address) {
+    this.channel = channel;
+    this.address = address;
+  }
+
+  public SocketChannel channel() {
+    return channel;
+  }
+
+  public SocketAddress address() {
+    return address;
+  }
+
+  @Override
+  protected void expired(long now) {
+    fail(new SocketTimeoutException("Connecting to " + address + " timed out"));
+  }
+
+  /// Close the channel and fail the attempt, unless it already completed
+  public void fail(Throwable cause) {
+    try {
+      channel.close();
+    } catch (IOException ex) {
+      TODO.todoErrorHandling(ex);
+    }
+
+    future.completeExceptionally(cause);
+  }
+
+  /// Complete the attempt with the established connection, closing it if the attempt
+  /// already failed or was cancelled in the meantime
+  void complete(Connection connection) {
+    if (!future.complete(connection)) {
+      connection.disconnect();
+    }
+  }
+
+}
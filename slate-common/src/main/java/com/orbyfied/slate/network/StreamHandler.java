@@ -0,0 +1,20 @@
+package com.orbyfied.slate.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Handles the messages received on a {@link MultiplexedStream}.
+ */
+@FunctionalInterface
+public interface StreamHandler {
+
+  /**
+   * Handle the given message, which was reassembled from its chunks. The buffer
+   * is only valid for the duration of this call.
+   *
+   * @param stream The stream the message was received on.
+   * @param message The message.
+   */
+  void handle(MultiplexedStream stream, ByteBuffer message) throws Exception;
+
+}
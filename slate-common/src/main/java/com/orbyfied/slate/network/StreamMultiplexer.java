@@ -0,0 +1,172 @@
+package com.orbyfied.slate.network;
+
+import com.orbyfied.slate.project.TODO;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Multiplexes logical streams over the channels of a single connection, see {@link MultiplexedStream}.
+ *
+ * A message is sent as frames of at most {@link #CHUNK_SIZE} bytes on the channel of its stream,
+ * every frame but the last is flagged as {@link ConnectionFrame#CONTINUED}. Chunks are cut while
+ * the connection is flushed, after the frames sent directly on the connection, picking the stream
+ * with the highest priority which has data and window left and alternating between streams of the
+ * same priority. Small messages are therefore never queued behind a bulk transfer.
+ *
+ * Received frames are passed to the stream open on their channel before the pipeline of the
+ * connection is consulted. Flow control messages are sent on {@link Connection#STREAM_CONTROL_CHANNEL}:
+ * [type: int8][stream: int16][increment: int32] for {@link #WINDOW_UPDATE}.
+ *
+ * Streams are identified by their channel and opened on both ends by the application, like the
+ * handlers of the pipeline.
+ */
+public final class StreamMultiplexer {
+
+  /// The maximum size of the chunks messages are sent in
+  public static final int CHUNK_SIZE = 16 * 1024;
+  /// The flow control window every stream starts with
+  public static final int INITIAL_WINDOW = 256 * 1024;
+  /// The maximum amount of frames in a write when chunks are added to it, which bounds the
+  /// amount of chunks a frame queued while the connection is flushed may have to wait for
+  public static final int MAX_CHUNKS_PER_WRITE = 8;
+
+  /* Flow control message types */
+  static final byte WINDOW_UPDATE = 1;
+
+  static final MultiplexedStream[] NO_STREAMS = new MultiplexedStream[0];
+
+  final Connection connection;
+
+  /// The open streams, few enough per connection to be looked up by scanning.
+  /// Modifications copy the array, reading uses the current array without locking.
+  private volatile MultiplexedStream[] streams = NO_STREAMS;
+
+  // The index after the stream which sent the last chunk, only accessed by the thread flushing the connection
+  private int cursor;
+
+  StreamMultiplexer(Connection connection) {
+    this.connection = connection;
+  }
+
+  /**
+   * Open a stream on the given channel of the connection. May be called from any thread.
+   *
+   * @param channel The channel id, not a channel reserved by the connection.
+   * @param priority The priority, see {@link MultiplexedStream#PRIORITY_NORMAL}.
+   * @param handler The handler for the received messages.
+   * @return The stream.
+   */
+  public synchronized MultiplexedStream open(short channel, int priority, StreamHandler handler) {
+    if (channel == Connection.KEEPALIVE_CHANNEL || channel == Connection.STREAM_CONTROL_CHANNEL) {
+      throw new IllegalArgumentException("Channel " + channel + " is reserved");
+    }
+
+    if (stream(channel) != null) {
+      throw new IllegalStateException("A stream is already open on channel " + channel);
+    }
+
+    final MultiplexedStream stream = new MultiplexedStream(this, channel, priority, handler);
+    final MultiplexedStream[] newStreams = Arrays.copyOf(streams, streams.length + 1);
+    newStreams[streams.length] = stream;
+    this.streams = newStreams;
+    return stream;
+  }
+
+  synchronized void remove(MultiplexedStream stream) {
+    final MultiplexedStream[] streams = this.streams;
+    for (int i = 0; i < streams.length; i++) {
+      if (streams[i] == stream) {
+        final MultiplexedStream[] newStreams = new MultiplexedStream[streams.length - 1];
+        System.arraycopy(streams, 0, newStreams, 0, i);
+        System.arraycopy(streams, i + 1, newStreams, i, streams.length - i - 1);
+        this.streams = newStreams;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Get the stream open on the given channel.
+   *
+   * @return The stream, or null if there is none.
+   */
+  public MultiplexedStream stream(short channel) {
+    final MultiplexedStream[] streams = this.streams;
+    for (int i = 0; i < streams.length; i++) {
+      if (streams[i].id == channel) {
+        return streams[i];
+      }
+    }
+
+    return null;
+  }
+
+  /// Cut the next chunk to send, only called by the thread flushing the connection
+  OutboundFrame pollChunk() {
+    final MultiplexedStream[] streams = this.streams;
+    final int count = streams.length;
+    MultiplexedStream best = null;
+    int bestIndex = 0;
+    for (int i = 0; i < count; i++) {
+      final int index = (cursor + i) % count;
+      final MultiplexedStream stream = streams[index];
+      if ((best == null || stream.priority > best.priority) && stream.isReady()) {
+        best = stream;
+        bestIndex = index;
+      }
+    }
+
+    if (best == null) {
+      return null;
+    }
+
+    cursor = bestIndex + 1;
+    return best.nextChunk();
+  }
+
+  /// Pass a received frame to the stream open on its channel, only called by the thread dispatching the frames
+  /// @return Whether a stream handled the frame, if not it is dispatched through the pipeline
+  boolean dispatch(ConnectionFrame frame) throws Exception {
+    final MultiplexedStream stream = stream(frame.channel);
+    if (stream == null) {
+      return false;
+    }
+
+    stream.received(frame);
+    return true;
+  }
+
+  /// Handle a flow control message, called by the thread reading the connection
+  void controlReceived(ByteBuffer payload) {
+    if (payload.remaining() < 7 || payload.get(payload.position()) != WINDOW_UPDATE) {
+      TODO.todoEventLogging("StreamMultiplexer", "WARN: Received malformed stream control message of size " + payload.remaining());
+      return;
+    }
+
+    final short channel = payload.getShort(payload.position() + 1);
+    final int increment = payload.getInt(payload.position() + 3);
+    final MultiplexedStream stream = stream(channel);
+    if (stream != null && increment > 0) {
+      stream.windowUpdate(increment);
+    }
+  }
+
+  // Acknowledge the given amount of handled bytes of a stream to the peer
+  void sendWindowUpdate(short channel, int increment) {
+    final ByteBuffer message = ByteBuffer.allocate(7)
+        .put(WINDOW_UPDATE)
+        .putShort(channel)
+        .putInt(increment)
+        .flip();
+    connection.send(Connection.STREAM_CONTROL_CHANNEL, message);
+  }
+
+  /// Close every stream, called once the connection was closed
+  void close() {
+    for (MultiplexedStream stream : streams) {
+      stream.close();
+    }
+  }
+
+}
@@ -0,0 +1,52 @@
+package com.orbyfied.slate.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Handles frames received on a channel, receiving the payload of large frames
+ * in chunks as it arrives instead of as a whole.
+ *
+ * Uncompressed frames at least {@link ConnectionManager#getStreamingThreshold()} in size
+ * which do not fit the read buffer are streamed, all other frames are passed to
+ * {@link #handle(ConnectionFrame)}. Streamed frames are not passed through the
+ * decoders of the pipeline. The events of a streamed frame are delivered in order,
+ * on the same thread as whole frames would be.
+ *
+ * The frame passed to the stream events has no buffer, it only describes the
+ * streamed frame and may be used to identify it between the events.
+ */
+public interface StreamingFrameHandler extends FrameHandler {
+
+  /**
+   * Called once the header of a streamed frame was received.
+   *
+   * @param frame The streamed frame.
+   */
+  void onStart(ConnectionFrame frame) throws Exception;
+
+  /**
+   * Called for every chunk of the payload in order, the chunk is read-only
+   * and only valid for the duration of this call.
+   *
+   * @param frame The streamed frame.
+   * @param chunk The chunk of payload.
+   */
+  void onChunk(ConnectionFrame frame, ByteBuffer chunk) throws Exception;
+
+  /**
+   * Called once the complete payload was received.
+   *
+   * @param frame The streamed frame.
+   */
+  void onComplete(ConnectionFrame frame) throws Exception;
+
+  /**
+   * Called instead of {@link #onComplete(ConnectionFrame)} if the frame was not
+   * received completely, because the connection was closed or a previous stream
+   * event of the frame failed.
+   *
+   * @param frame The streamed frame.
+   */
+  default void onAbort(ConnectionFrame frame) throws Exception { }
+
+}
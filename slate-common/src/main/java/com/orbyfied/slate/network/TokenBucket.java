@@ -0,0 +1,64 @@
+package com.orbyfied.slate.network;
+
+/**
+ * A token bucket which is refilled at a constant rate up to its capacity, used to
+ * limit the rate of frames and bytes read from a connection.
+ *
+ * Amounts larger than the capacity are taken once the bucket is full and leave it in
+ * debt, so a single large frame is delayed rather than rejected.
+ *
+ * @implNote Not thread safe, a bucket is only used by the worker handling its connection.
+ */
+public final class TokenBucket {
+
+  final double tokensPerNano;
+  final double capacity;
+
+  double tokens;
+  long lastRefillNanos;
+
+  /**
+   * @param tokensPerSecond The rate the bucket is refilled at.
+   * @param capacity The maximum amount of tokens, the size of a burst.
+   * @param now The current time in nanoseconds.
+   */
+  public TokenBucket(long tokensPerSecond, long capacity, long now) {
+    if (tokensPerSecond <= 0 || capacity <= 0) {
+      throw new IllegalArgumentException("Invalid rate " + tokensPerSecond + " or capacity " + capacity);
+    }
+
+    this.tokensPerNano = tokensPerSecond / 1e9;
+    this.capacity = capacity;
+    this.tokens = capacity;
+    this.lastRefillNanos = now;
+  }
+
+  public double tokens() {
+    return tokens;
+  }
+
+  /**
+   * Refill the bucket and get the time until the given amount can be taken.
+   *
+   * @param amount The amount of tokens.
+   * @param now The current time in nanoseconds.
+   * @return The nanoseconds until the tokens are available, 0 if they are.
+   */
+  public long nanosUntilAvailable(long amount, long now) {
+    if (now > lastRefillNanos) {
+      tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+      lastRefillNanos = now;
+    }
+
+    final double missing = Math.min(amount, capacity) - tokens;
+    return missing <= 0 ? 0 : (long) Math.ceil(missing / tokensPerNano);
+  }
+
+  /**
+   * Take the given amount of tokens, which should be available.
+   */
+  public void take(long amount) {
+    tokens -= amount;
+  }
+
+}
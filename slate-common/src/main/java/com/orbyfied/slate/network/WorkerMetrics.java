@@ -0,0 +1,107 @@
+package com.orbyfied.slate.network;
+
+import com.orbyfied.slate.util.concurrent.Log2Histogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic counters and distributions of a connection worker, aggregated over its
+ * connections. Counters are striped, as the connections of a worker may be handled
+ * by multiple threads.
+ */
+public final class WorkerMetrics {
+
+  final LongAdder bytesIn = new LongAdder();
+  final LongAdder bytesOut = new LongAdder();
+  final LongAdder framesIn = new LongAdder();
+  final LongAdder framesOut = new LongAdder();
+  final LongAdder reads = new LongAdder();
+  final LongAdder writes = new LongAdder();
+
+  /// The sizes of the completed incoming frames, excluding the header
+  final Log2Histogram inboundFrameSizes = new Log2Histogram();
+  /// The sizes of the written frames, excluding the header
+  final Log2Histogram outboundFrameSizes = new Log2Histogram();
+  /// The time from the first ready event of a selector loop iteration until its work was done, in nanoseconds
+  final Log2Histogram loopLatencyNanos = new Log2Histogram();
+
+  /// Called after a read from the socket of a connection
+  void recordRead(int bytes) {
+    reads.increment();
+    bytesIn.add(bytes);
+  }
+
+  /// Called for every completed incoming frame
+  void recordFrameIn(int size) {
+    framesIn.increment();
+    inboundFrameSizes.record(size);
+  }
+
+  /// Called after a write to the socket of a connection
+  void recordWrite(long bytes) {
+    writes.increment();
+    bytesOut.add(bytes);
+  }
+
+  /// Called for every frame which was written completely
+  void recordFrameOut(int size) {
+    framesOut.increment();
+    outboundFrameSizes.record(size);
+  }
+
+  /// Called by the worker at the end of a selector loop iteration
+  void recordLoopLatency(long nanos) {
+    loopLatencyNanos.record(nanos);
+  }
+
+  public long bytesIn() {
+    return bytesIn.sum();
+  }
+
+  /**
+   * Take a snapshot of the counters of the given worker context.
+   */
+  Snapshot snapshot(ConnectionWorkerContext context) {
+    return new Snapshot(
+        context.connectionCount(),
+        bytesIn.sum(), bytesOut.sum(),
+        framesIn.sum(), framesOut.sum(),
+        reads.sum(), writes.sum(),
+        context.decodeBytesOutstanding(),
+        context.recentBytesPerSecond(),
+        inboundFrameSizes.snapshot(),
+        outboundFrameSizes.snapshot(),
+        loopLatencyNanos.snapshot()
+    );
+  }
+
+  /**
+   * A point in time view of the metrics of a worker, values recorded
+   * while the snapshot was taken may or may not be included.
+   *
+   * @param connections The amount of connections assigned to the worker.
+   * @param bytesIn The amount of bytes read from the sockets.
+   * @param bytesOut The amount of bytes written to the sockets.
+   * @param framesIn The amount of completed incoming frames.
+   * @param framesOut The amount of frames written completely.
+   * @param reads The amount of reads from the sockets.
+   * @param writes The amount of writes to the sockets.
+   * @param decodeBytesOutstanding The size of the decode buffers held by frames of the connections.
+   * @param recentBytesPerSecond The moving average of the bytes read per second.
+   * @param inboundFrameSizes The sizes of the incoming frames.
+   * @param outboundFrameSizes The sizes of the written frames.
+   * @param loopLatencyNanos The processing time per selector loop iteration of the worker thread.
+   */
+  public record Snapshot(int connections, long bytesIn, long bytesOut, long framesIn, long framesOut,
+                         long reads, long writes, long decodeBytesOutstanding, double recentBytesPerSecond,
+                         Log2Histogram.Snapshot inboundFrameSizes, Log2Histogram.Snapshot outboundFrameSizes,
+                         Log2Histogram.Snapshot loopLatencyNanos) {
+
+    /// The average amount of reads from the socket per completed frame
+    public double readsPerFrame() {
+      return framesIn == 0 ? reads : (double) reads / framesIn;
+    }
+
+  }
+
+}
@@ -1,7 +1,13 @@
 package com.orbyfied.slate.network;
 
-import java.nio.channels.SocketChannel;
+import com.orbyfied.slate.project.TODO;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public interface WorkerSelector {
@@ -13,14 +19,214 @@ public interface WorkerSelector {
       @Override
       public ConnectionWorker next(ConnectionManager manager, Connection connection) {
         final List<ConnectionWorker> pool = manager.getWorkerPool();
-        return pool.get(index.incrementAndGet() % pool.size());
+        if (pool.isEmpty()) {
+          return null;
+        }
+
+        return pool.get(Math.floorMod(index.getAndIncrement(), pool.size()));
+      }
+    };
+  }
+
+  /**
+   * Pick the worker with the least connections assigned.
+   */
+  static WorkerSelector leastConnections() {
+    return (manager, connection) -> {
+      final List<ConnectionWorker> pool = manager.getWorkerPool();
+      ConnectionWorker best = null;
+      int bestCount = Integer.MAX_VALUE;
+      for (int i = 0, n = pool.size(); i < n; i++) {
+        final ConnectionWorker worker = pool.get(i);
+        final int count = worker.connectionCount();
+        if (count < bestCount) {
+          best = worker;
+          bestCount = count;
+        }
+      }
+
+      return best;
+    };
+  }
+
+  /**
+   * Pick the worker with the lowest recent read throughput, preferring
+   * the worker with fewer connections if the throughput is equal.
+   *
+   * @see ConnectionWorkerContext#recentBytesPerSecond()
+   */
+  static WorkerSelector leastThroughput() {
+    return (manager, connection) -> {
+      final List<ConnectionWorker> pool = manager.getWorkerPool();
+      ConnectionWorker best = null;
+      double bestRate = Double.MAX_VALUE;
+      for (int i = 0, n = pool.size(); i < n; i++) {
+        final ConnectionWorker worker = pool.get(i);
+        final double rate = worker.recentBytesPerSecond();
+        if (rate < bestRate || (rate == bestRate && worker.connectionCount() < best.connectionCount())) {
+          best = worker;
+          bestRate = rate;
+        }
+      }
+
+      return best;
+    };
+  }
+
+  /**
+   * Pick two random workers and choose the one with less connections, which
+   * balances nearly as well as {@link #leastConnections()} without scanning
+   * every worker or herding bursts of connections onto the same worker.
+   */
+  static WorkerSelector powerOfTwoChoices() {
+    return (manager, connection) -> {
+      final List<ConnectionWorker> pool = manager.getWorkerPool();
+      final int size = pool.size();
+      if (size == 0) {
+        return null;
+      }
+
+      if (size == 1) {
+        return pool.get(0);
       }
+
+      final ThreadLocalRandom random = ThreadLocalRandom.current();
+      final int first = random.nextInt(size);
+      final int second = (first + 1 + random.nextInt(size - 1)) % size; // distinct from the first
+      final ConnectionWorker a = pool.get(first);
+      final ConnectionWorker b = pool.get(second);
+      return a.connectionCount() <= b.connectionCount() ? a : b;
     };
   }
 
+  /**
+   * Pick the worker by consistent hashing of the peer address, so connections
+   * from the same host are handled by the same worker while the worker pool
+   * is unchanged, and mostly keep their worker if it changes.
+   */
+  static WorkerSelector consistentHash() {
+    return consistentHash(ConsistentHashSelector.DEFAULT_VIRTUAL_NODES);
+  }
+
+  /**
+   * @param virtualNodes The amount of points on the hash ring per worker.
+   * @see #consistentHash()
+   */
+  static WorkerSelector consistentHash(int virtualNodes) {
+    return new ConsistentHashSelector(virtualNodes);
+  }
+
   /**
    * Pick the worker which is to be assigned the given channel.
    */
   ConnectionWorker next(ConnectionManager manager, Connection connection);
 
+  /**
+   * Selects workers from a hash ring with a number of virtual nodes per worker.
+   */
+  final class ConsistentHashSelector implements WorkerSelector {
+
+    /// The default amount of points on the hash ring per worker
+    public static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    final int virtualNodes;
+
+    // The sorted hashes of the points on the ring and the workers they belong to,
+    // rebuilt when the worker pool changes
+    private volatile Ring ring;
+
+    record Ring(List<ConnectionWorker> workers, long[] hashes, ConnectionWorker[] owners) { }
+
+    ConsistentHashSelector(int virtualNodes) {
+      if (virtualNodes < 1) {
+        throw new IllegalArgumentException("Invalid virtual node count " + virtualNodes);
+      }
+
+      this.virtualNodes = virtualNodes;
+    }
+
+    @Override
+    public ConnectionWorker next(ConnectionManager manager, Connection connection) {
+      final List<ConnectionWorker> pool = manager.getWorkerPool();
+      if (pool.isEmpty()) {
+        return null;
+      }
+
+      Ring ring = this.ring;
+      if (ring == null || !ring.workers.equals(pool)) {
+        this.ring = ring = buildRing(List.copyOf(pool));
+      }
+
+      // find the first point at or after the hash of the peer, wrapping around
+      final long hash = mix(peerHash(connection));
+      int index = Arrays.binarySearch(ring.hashes, hash);
+      if (index < 0) {
+        index = -index - 1;
+      }
+
+      return ring.owners[index == ring.hashes.length ? 0 : index];
+    }
+
+    private Ring buildRing(List<ConnectionWorker> workers) {
+      final int points = workers.size() * virtualNodes;
+      final long[] keys = new long[points];
+      final int[] order = new int[points];
+      for (int w = 0; w < workers.size(); w++) {
+        for (int v = 0; v < virtualNodes; v++) {
+          final int point = w * virtualNodes + v;
+          keys[point] = mix(((long) System.identityHashCode(workers.get(w)) << 32) | v); // stable when other workers change
+          order[point] = w;
+        }
+      }
+
+      // sort the points by hash, keeping track of their owners
+      final Integer[] indices = new Integer[points];
+      for (int i = 0; i < points; i++) {
+        indices[i] = i;
+      }
+
+      Arrays.sort(indices, (a, b) -> Long.compare(keys[a], keys[b]));
+      final long[] hashes = new long[points];
+      final ConnectionWorker[] owners = new ConnectionWorker[points];
+      for (int i = 0; i < points; i++) {
+        hashes[i] = keys[indices[i]];
+        owners[i] = workers.get(order[indices[i]]);
+      }
+
+      return new Ring(workers, hashes, owners);
+    }
+
+    // Hash the address of the peer host, ignoring the port
+    private static long peerHash(Connection connection) {
+      try {
+        final SocketAddress address = connection.getChannel().getRemoteAddress();
+        if (address instanceof InetSocketAddress inetAddress && inetAddress.getAddress() != null) {
+          final byte[] bytes = inetAddress.getAddress().getAddress();
+          long hash = 0;
+          for (byte b : bytes) {
+            hash = hash * 31 + (b & 0xFF);
+          }
+
+          return hash;
+        }
+
+        return address != null ? address.hashCode() : 0;
+      } catch (IOException ex) {
+        TODO.todoErrorHandling("Could not get the peer address of connection " + connection.getChannel(), ex);
+        return 0;
+      }
+    }
+
+    // Spread the bits of the given value, the 64 bit finalizer of MurmurHash3
+    static long mix(long h) {
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb93fe66aed53L;
+      h ^= h >>> 33;
+      return h;
+    }
+
+  }
+
 }
@@ -0,0 +1,70 @@
+package com.orbyfied.slate.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable state for gathering writes of queued {@link OutboundFrame}s.
+ *
+ * @implNote Not thread safe, every flushing thread must own its own instance.
+ */
+public final class WriteBatch {
+
+  final OutboundFrame[] frames;  // The frames included in the current write
+  final ByteBuffer[] buffers;    // The buffers passed to the gathering write, two per frame
+  final ByteBuffer[] headers;    // The slots of the direct header slab the headers are encoded into, one per frame
+  int frameCount;                // The amount of frames in the current write
+
+  public WriteBatch(int maxFrames) {
+    this.frames = new OutboundFrame[maxFrames];
+    this.buffers = new ByteBuffer[maxFrames * 2];
+
+    // a single direct slab for the headers, so they are neither allocated
+    // per frame nor copied to a temporary direct buffer by the channel
+    final ByteBuffer headerSlab = ByteBuffer.allocateDirect(maxFrames * OutboundFrame.MAX_HEADER_SIZE);
+    this.headers = new ByteBuffer[maxFrames];
+    for (int i = 0; i < maxFrames; i++) {
+      headers[i] = headerSlab.slice(i * OutboundFrame.MAX_HEADER_SIZE, OutboundFrame.MAX_HEADER_SIZE);
+    }
+  }
+
+  boolean isFull() {
+    return frameCount == frames.length;
+  }
+
+  void add(OutboundFrame frame) {
+    if (frame.headerSize != 0) {
+      frame.encodeHeader(headers[frameCount]);
+      buffers[frameCount * 2] = headers[frameCount];
+    } else {
+      buffers[frameCount * 2] = OutboundFrame.NO_HEADER;
+    }
+
+    buffers[frameCount * 2 + 1] = frame.payload;
+    frames[frameCount++] = frame;
+  }
+
+  // Whether all bytes of the frame at the given index were written
+  boolean isWritten(int index) {
+    return !buffers[index * 2].hasRemaining() && !buffers[index * 2 + 1].hasRemaining();
+  }
+
+  // Remember the progress of the partially written header of the frame at the given index,
+  // as the slot is reused before the frame is added to a batch again
+  void unwritten(int index) {
+    final OutboundFrame frame = frames[index];
+    if (frame.headerSize != 0) {
+      frame.headerWritten = headers[index].position();
+    }
+  }
+
+  void clear() {
+    for (int i = 0; i < frameCount; i++) {
+      frames[i] = null;
+      buffers[i * 2] = null;
+      buffers[i * 2 + 1] = null;
+    }
+
+    frameCount = 0;
+  }
+
+}
@@ -0,0 +1,63 @@
+package com.orbyfied.slate.network;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the frames queued on a connection since it was last flushed, to decide when the
+ * worker writes them according to the {@link FlushPolicy} of the connection. The frames
+ * stay in the send queue of the connection, which is written with gathering writes.
+ */
+final class WriteCoalescer {
+
+  /// The policy of the connection, may be replaced at any time
+  volatile FlushPolicy policy;
+
+  // The amount of bytes queued since the last flush and the time the first of them was queued
+  private final AtomicInteger queuedBytes = new AtomicInteger(0);
+  private volatile long firstQueuedNanos;
+
+  WriteCoalescer(FlushPolicy policy) {
+    this.policy = policy;
+  }
+
+  /// Account a frame added to the send queue, called by the thread sending it
+  void queued(int size) {
+    if (policy.delayNanos == 0) {
+      return;
+    }
+
+    if (queuedBytes.getAndAdd(size) == 0) {
+      firstQueuedNanos = System.nanoTime();
+    }
+  }
+
+  /// Whether the queued bytes reached the limit of a delayed policy, so they have to be written now
+  boolean isFull() {
+    final FlushPolicy policy = this.policy;
+    return policy.delayNanos != 0 && queuedBytes.get() >= policy.maxBytes;
+  }
+
+  /// Whether the queued frames are due to be written before the given time
+  boolean isDueBefore(long time) {
+    return nanosUntilDue(time) <= 0;
+  }
+
+  /// The time until the queued frames are due to be written, 0 or less if they are due
+  long nanosUntilDue(long now) {
+    final FlushPolicy policy = this.policy;
+    if (policy.delayNanos == 0 || queuedBytes.get() >= policy.maxBytes) {
+      return 0;
+    }
+
+    // a stale time of an earlier flush only makes the frames due early
+    return firstQueuedNanos + policy.delayNanos - now;
+  }
+
+  /// Called before the queued frames are written, frames queued afterwards wait for the next flush
+  void flushing() {
+    if (queuedBytes.get() != 0) {
+      queuedBytes.set(0);
+    }
+  }
+
+}
@@ -8,12 +8,19 @@ import lombok.RequiredArgsConstructor;
 @Getter
 public enum Trust {
 
-  UNAUTHORIZED(1024 * 16), /* very low packet size limit */
+  UNAUTHORIZED(1024 * 16, 1000, 1024 * 1024, 1000), /* very low packet size and rate limits */
 
-  INTERNAL(Connection.MAX_FRAME_SIZE) /* high packet size limit, may transfer large amounts of data */
+  INTERNAL(Connection.MAX_FRAME_SIZE, 0, 0, 0) /* high packet size limit, may transfer large amounts of data */
 
   ;
 
   private final int maxFrameSize;
 
+  /// The maximum amount of frames and bytes read per second on average, 0 for no limit
+  private final long maxFramesPerSecond;
+  private final long maxBytesPerSecond;
+
+  /// The duration of traffic at the maximum rates which may be read at once after being idle
+  private final long burstMillis;
+
 }
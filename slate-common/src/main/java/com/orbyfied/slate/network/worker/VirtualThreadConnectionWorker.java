@@ -0,0 +1,63 @@
+package com.orbyfied.slate.network.worker;
+
+import com.orbyfied.slate.network.BlockingConnectionContext;
+import com.orbyfied.slate.network.Connection;
+import com.orbyfied.slate.network.ConnectionManager;
+import com.orbyfied.slate.network.PendingConnect;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Connection worker which handles every connection on its own virtual threads with
+ * blocking reads and writes instead of multiplexing them on the selector.
+ *
+ * The connections share the buffer pools, decode budget and load counters of this worker,
+ * while the worker thread itself only runs the tasks submitted to the worker. Connections
+ * are not registered with the selector, so they can not be migrated to or from this worker.
+ *
+ * @see BlockingConnectionContext
+ */
+public class VirtualThreadConnectionWorker extends ThreadConnectionWorker {
+
+  /// Creates the reader and writer threads of the connections
+  private final ThreadFactory connectionThreadFactory = Thread.ofVirtual()
+      .name("ConnectionIO-", 0)
+      .factory();
+
+  public VirtualThreadConnectionWorker(ConnectionManager manager) {
+    super(manager);
+  }
+
+  @Override
+  public void submitConnection(Connection connection) {
+    connectionCount.incrementAndGet();
+    new BlockingConnectionContext(this, connection).start(connectionThreadFactory);
+  }
+
+  @Override
+  protected void accepted(Connection connection) {
+    submitConnection(connection);
+  }
+
+  @Override
+  protected void beginConnect(PendingConnect pending) {
+    // connect with a blocking connect on a virtual thread, like the connection is handled afterwards
+    connectionThreadFactory.newThread(() -> {
+      try {
+        pending.channel().connect(pending.address());
+      } catch (IOException ex) {
+        execute(() -> connectFailed(pending, ex));
+        return;
+      }
+
+      execute(() -> connected(pending));
+    }).start();
+  }
+
+  @Override
+  protected boolean acceptsMigrations() {
+    return false;
+  }
+
+}
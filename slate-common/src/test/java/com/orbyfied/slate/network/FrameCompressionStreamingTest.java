@@ -0,0 +1,123 @@
+package com.orbyfied.slate.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameCompressionStreamingTest {
+
+  static final short CHANNEL = 9;
+
+  final ConnectionManager server = new ConnectionManager();
+  final ConnectionManager client = new ConnectionManager();
+
+  Connection connect() throws Exception {
+    server.allocateThreadedWorkers(1);
+    server.bind(new InetSocketAddress("127.0.0.1", 0));
+    server.start();
+
+    client.allocateThreadedWorkers(1);
+    client.start();
+    return client.connect(new InetSocketAddress("127.0.0.1", server.servicePort())).get(5, TimeUnit.SECONDS);
+  }
+
+  @AfterEach
+  void close() {
+    client.close();
+    server.close();
+  }
+
+  @Test
+  void largeCompressibleFramesAreStreamed() throws Exception {
+    final int size = ConnectionManager.DEFAULT_STREAMING_THRESHOLD * 2;
+    final AtomicLong received = new AtomicLong();
+    final AtomicBoolean corrupt = new AtomicBoolean();
+    final AtomicBoolean handledWhole = new AtomicBoolean();
+    final CompletableFuture<Void> completed = new CompletableFuture<>();
+    server.getPipeline().handler(CHANNEL, new StreamingFrameHandler() {
+      @Override
+      public void handle(ConnectionFrame frame) {
+        handledWhole.set(true);
+        completed.complete(null);
+      }
+
+      @Override
+      public void onStart(ConnectionFrame frame) {
+        corrupt.compareAndSet(false, frame.isCompressed());
+      }
+
+      @Override
+      public void onChunk(ConnectionFrame frame, ByteBuffer chunk) {
+        received.addAndGet(chunk.remaining());
+        while (chunk.hasRemaining()) {
+          corrupt.compareAndSet(false, chunk.get() != 7);
+        }
+      }
+
+      @Override
+      public void onComplete(ConnectionFrame frame) {
+        completed.complete(null);
+      }
+    });
+
+    // a payload of a single repeated byte would be compressed to almost nothing
+    final Connection connection = connect();
+    final ByteBuffer payload = ByteBuffer.allocate(size);
+    while (payload.hasRemaining()) {
+      payload.put((byte) 7);
+    }
+
+    assertTrue(connection.send(CHANNEL, payload.flip()));
+    completed.get(10, TimeUnit.SECONDS);
+
+    assertFalse(handledWhole.get(), "The frame was not streamed");
+    assertFalse(corrupt.get());
+    assertEquals(size, received.get());
+  }
+
+  @Test
+  void compressedFramesWaitForTheDecodeBudget() throws Exception {
+    // every decompressed frame exceeds the budget on its own, so they are decompressed one at a time
+    final int count = 64;
+    final int size = 64 * 1024;
+    server.decodeBudget(1024, 1024);
+
+    final AtomicInteger received = new AtomicInteger();
+    final AtomicBoolean corrupt = new AtomicBoolean();
+    final CountDownLatch completed = new CountDownLatch(count);
+    server.getPipeline().handler(CHANNEL, frame -> {
+      final ByteBuffer buffer = frame.buffer();
+      corrupt.compareAndSet(false, buffer.remaining() != size);
+      while (buffer.hasRemaining()) {
+        corrupt.compareAndSet(false, buffer.get() != 3);
+      }
+
+      received.incrementAndGet();
+      completed.countDown();
+    });
+
+    final Connection connection = connect();
+    for (int i = 0; i < count; i++) {
+      final ByteBuffer payload = ByteBuffer.allocate(size);
+      while (payload.hasRemaining()) {
+        payload.put((byte) 3);
+      }
+
+      assertTrue(connection.send(CHANNEL, payload.flip()));
+    }
+
+    assertTrue(completed.await(10, TimeUnit.SECONDS), "Received " + received.get() + " of " + count + " frames");
+    assertFalse(corrupt.get());
+  }
+
+}
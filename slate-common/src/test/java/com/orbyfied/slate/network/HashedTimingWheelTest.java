@@ -0,0 +1,197 @@
+package com.orbyfied.slate.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashedTimingWheelTest {
+
+  // 8 buckets of 10ns each, so a revolution takes 80ns
+  final HashedTimingWheel wheel = new HashedTimingWheel(10, 8, 0);
+  final List<String> fired = new ArrayList<>();
+
+  // Records its expirations, optionally running an action afterwards
+  final class Recording extends HashedTimingWheel.Timeout {
+    final String name;
+    LongConsumer action;
+
+    Recording(String name) {
+      this.name = name;
+    }
+
+    @Override
+    protected void expired(long now) {
+      fired.add(name);
+      if (action != null) {
+        action.accept(now);
+      }
+    }
+  }
+
+  @Test
+  void rejectsInvalidParameters() {
+    assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel(0, 8, 0));
+    assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel(10, 0, 0));
+    assertEquals(8, new HashedTimingWheel(10, 5, 0).buckets.length);
+  }
+
+  @Test
+  void expiresOnceTheTickOfTheDeadlinePassed() {
+    final Recording timeout = new Recording("a");
+    wheel.schedule(timeout, 25);
+    assertTrue(timeout.isScheduled());
+    assertEquals(25, timeout.deadline());
+    assertEquals(1, wheel.size());
+
+    wheel.advance(25);
+    wheel.advance(29);
+    assertTrue(fired.isEmpty()); // never early
+
+    wheel.advance(30);
+    assertEquals(List.of("a"), fired);
+    assertFalse(timeout.isScheduled());
+    assertTrue(wheel.isEmpty());
+
+    wheel.advance(100);
+    assertEquals(1, fired.size());
+  }
+
+  @Test
+  void expiresDeadlinesSeveralRevolutionsAhead() {
+    final Recording timeout = new Recording("a");
+    wheel.schedule(timeout, 165); // tick 16, the bucket of tick 0 two revolutions later
+    assertEquals(2, timeout.rounds);
+
+    wheel.advance(160);
+    assertTrue(fired.isEmpty());
+    assertEquals(0, timeout.rounds);
+
+    wheel.advance(169);
+    assertTrue(fired.isEmpty());
+
+    wheel.advance(170);
+    assertEquals(List.of("a"), fired);
+  }
+
+  @Test
+  void expiresPastDeadlinesOnTheNextTick() {
+    wheel.advance(50);
+
+    wheel.schedule(new Recording("a"), 5);
+    wheel.advance(59);
+    assertTrue(fired.isEmpty());
+
+    wheel.advance(60);
+    assertEquals(List.of("a"), fired);
+  }
+
+  @Test
+  void skipsTicksWhileEmpty() {
+    wheel.advance(1000);
+    assertEquals(100, wheel.tick);
+
+    wheel.schedule(new Recording("a"), 1005);
+    wheel.advance(1010);
+    assertEquals(List.of("a"), fired);
+  }
+
+  @Test
+  void cancelledTimeoutsDoNotExpire() {
+    final Recording a = new Recording("a");
+    final Recording b = new Recording("b");
+    wheel.schedule(a, 15);
+    wheel.schedule(b, 15);
+    wheel.cancel(a);
+    wheel.cancel(a); // no effect when not scheduled
+
+    assertFalse(a.isScheduled());
+    assertEquals(1, wheel.size());
+
+    wheel.advance(100);
+    assertEquals(List.of("b"), fired);
+    assertTrue(wheel.isEmpty());
+  }
+
+  @Test
+  void reschedulingMovesTheTimeout() {
+    final Recording timeout = new Recording("a");
+    wheel.schedule(timeout, 15);
+    wheel.schedule(timeout, 45);
+    assertEquals(1, wheel.size());
+
+    wheel.advance(40);
+    assertTrue(fired.isEmpty());
+
+    wheel.advance(50);
+    assertEquals(List.of("a"), fired);
+  }
+
+  @Test
+  void rejectsTimeoutsOfAnotherWheel() {
+    final Recording timeout = new Recording("a");
+    new HashedTimingWheel(10, 8, 0).schedule(timeout, 15);
+    assertThrows(IllegalStateException.class, () -> wheel.schedule(timeout, 15));
+  }
+
+  @Test
+  void timeoutsMayRescheduleThemselves() {
+    final Recording timeout = new Recording("a");
+    timeout.action = now -> wheel.schedule(timeout, now + 5);
+    wheel.schedule(timeout, 5);
+
+    for (long now = 10; now <= 50; now += 10) {
+      wheel.advance(now);
+    }
+
+    assertEquals(5, fired.size());
+    assertTrue(timeout.isScheduled());
+  }
+
+  @Test
+  void timeoutsCancelledByAnExpiringTimeoutOfTheSameTickDoNotExpire() {
+    final Recording a = new Recording("a");
+    final Recording b = new Recording("b");
+    a.action = now -> wheel.cancel(b);
+    b.action = now -> wheel.cancel(a);
+    wheel.schedule(a, 15);
+    wheel.schedule(b, 15);
+
+    wheel.advance(100);
+    assertEquals(1, fired.size());
+    assertTrue(wheel.isEmpty());
+  }
+
+  @Test
+  void timeoutsRescheduledByAnExpiringTimeoutOfTheSameTickExpireLater() {
+    final Recording a = new Recording("a");
+    final Recording b = new Recording("b");
+    a.action = now -> wheel.schedule(b, now + 30);
+    b.action = now -> wheel.schedule(a, now + 30);
+    wheel.schedule(a, 15);
+    wheel.schedule(b, 15);
+
+    wheel.advance(20);
+    assertEquals(1, fired.size());
+    assertEquals(1, wheel.size());
+
+    final String first = fired.get(0);
+    wheel.advance(60);
+    assertEquals(2, fired.size());
+    assertNotEquals(first, fired.get(1));
+  }
+
+  @Test
+  void reportsTheTimeUntilTheNextTick() {
+    assertEquals(10, wheel.nanosUntilNextTick(0));
+    assertEquals(3, wheel.nanosUntilNextTick(7));
+    assertEquals(0, wheel.nanosUntilNextTick(12));
+
+    wheel.advance(12);
+    assertEquals(8, wheel.nanosUntilNextTick(12));
+  }
+
+}
@@ -0,0 +1,141 @@
+package com.orbyfied.slate.network;
+
+import com.orbyfied.slate.network.meta.Trust;
+import com.orbyfied.slate.network.worker.ThreadConnectionWorker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiplexedStreamTest {
+
+  final ConnectionManager manager = new ConnectionManager();
+  final ConnectionWorker worker = new ThreadConnectionWorker(manager);
+  final List<ByteBuffer> received = new ArrayList<>();
+
+  SocketChannel channel;
+  Connection connection;
+
+  @BeforeEach
+  void open() throws IOException {
+    // the worker is not started, the chunks are fed to the streams directly
+    channel = SocketChannel.open();
+    connection = new Connection(manager, channel);
+    connection.assigned(worker);
+  }
+
+  @AfterEach
+  void close() throws IOException {
+    channel.close();
+  }
+
+  MultiplexedStream stream(short channel) {
+    return connection.multiplexer().open(channel, MultiplexedStream.PRIORITY_NORMAL, (stream, message) -> {
+      received.add(ByteBuffer.allocate(message.remaining()).put(message).flip());
+    });
+  }
+
+  // Feed a chunk of the given size filled with the given byte to the stream
+  void chunk(MultiplexedStream stream, int size, byte value, boolean continued) throws Exception {
+    final ByteBuffer buffer = ByteBuffer.allocate(size);
+    while (buffer.hasRemaining()) {
+      buffer.put(value);
+    }
+
+    final ConnectionFrame frame = new ConnectionFrame(connection, size, continued ? ConnectionFrame.CONTINUED : 0);
+    frame.channel = stream.id;
+    frame.buffer = buffer.flip();
+    stream.received(frame);
+  }
+
+  static void assertMessage(ByteBuffer message, int size, byte value) {
+    assertEquals(size, message.remaining());
+    while (message.hasRemaining()) {
+      assertEquals(value, message.get());
+    }
+  }
+
+  void assertNoDecodeBytesOutstanding() {
+    assertEquals(0, connection.decodeBytesOutstanding.get());
+    assertEquals(0, connection.streamDecodeBytes.get());
+    assertEquals(0, worker.decodeBytesOutstanding.get());
+    assertEquals(0, worker.streamDecodeBytes.get());
+  }
+
+  @Test
+  void reassemblesChunkedMessages() throws Exception {
+    final MultiplexedStream stream = stream((short) 5);
+    chunk(stream, StreamMultiplexer.CHUNK_SIZE, (byte) 1, true);
+    chunk(stream, StreamMultiplexer.CHUNK_SIZE, (byte) 1, true);
+    chunk(stream, 100, (byte) 1, false);
+
+    assertEquals(1, received.size());
+    assertMessage(received.get(0), StreamMultiplexer.CHUNK_SIZE * 2 + 100, (byte) 1);
+    assertNoDecodeBytesOutstanding();
+  }
+
+  @Test
+  void dropsMessagesExceedingTheTrustLimitAndSkipsTheirChunks() throws Exception {
+    connection.trust = Trust.UNAUTHORIZED;
+    final int maxSize = Trust.UNAUTHORIZED.getMaxFrameSize();
+
+    // the second chunk exceeds the limit, the rest of the message must not be taken as a new one
+    final MultiplexedStream stream = stream((short) 5);
+    chunk(stream, maxSize, (byte) 1, true);
+    chunk(stream, 1, (byte) 1, true);
+    chunk(stream, 4096, (byte) 1, true);
+    chunk(stream, 4096, (byte) 1, false);
+    assertTrue(received.isEmpty());
+    assertNoDecodeBytesOutstanding();
+
+    chunk(stream, 4096, (byte) 2, true);
+    chunk(stream, 4096, (byte) 2, false);
+    assertEquals(1, received.size());
+    assertMessage(received.get(0), 8192, (byte) 2);
+  }
+
+  @Test
+  void dropsMessagesExceedingTheDecodeBudgetAndSkipsTheirChunks() throws Exception {
+    // room for a single assembly buffer of two chunks
+    manager.decodeBudget(StreamMultiplexer.CHUNK_SIZE * 3, ConnectionManager.DEFAULT_WORKER_DECODE_BUDGET);
+    final MultiplexedStream first = stream((short) 5);
+    final MultiplexedStream second = stream((short) 6);
+
+    // the second stream has no room while the first one holds its buffer
+    chunk(first, StreamMultiplexer.CHUNK_SIZE, (byte) 1, true);
+    assertEquals(StreamMultiplexer.CHUNK_SIZE * 2, connection.streamDecodeBytes.get());
+    chunk(second, StreamMultiplexer.CHUNK_SIZE, (byte) 2, true);
+    chunk(second, StreamMultiplexer.CHUNK_SIZE, (byte) 2, false);
+    assertTrue(received.isEmpty());
+
+    chunk(first, StreamMultiplexer.CHUNK_SIZE, (byte) 1, false);
+    assertEquals(1, received.size());
+    assertMessage(received.get(0), StreamMultiplexer.CHUNK_SIZE * 2, (byte) 1);
+    assertNoDecodeBytesOutstanding();
+
+    // once the buffer was released, the next message of the second stream fits
+    chunk(second, StreamMultiplexer.CHUNK_SIZE, (byte) 3, true);
+    chunk(second, StreamMultiplexer.CHUNK_SIZE, (byte) 3, false);
+    assertEquals(2, received.size());
+    assertMessage(received.get(1), StreamMultiplexer.CHUNK_SIZE * 2, (byte) 3);
+    assertNoDecodeBytesOutstanding();
+  }
+
+  @Test
+  void closeReleasesTheBudgetOfPartialMessages() throws Exception {
+    final MultiplexedStream stream = stream((short) 5);
+    chunk(stream, StreamMultiplexer.CHUNK_SIZE, (byte) 1, true);
+    assertTrue(connection.streamDecodeBytes.get() > 0);
+
+    stream.close();
+    assertNoDecodeBytesOutstanding();
+  }
+
+}
@@ -0,0 +1,181 @@
+package com.orbyfied.slate.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PendingCallTableTest {
+
+  final PendingCallTable table = new PendingCallTable();
+
+  static PendingCall call(long id) {
+    final PendingCall call = new PendingCall() {
+      @Override
+      protected void completed(ConnectionFrame response) { }
+
+      @Override
+      protected void failed(Throwable cause) { }
+    };
+
+    call.id = id;
+    return call;
+  }
+
+  // The ids of the given count whose preferred slot in the initial table is the given slot
+  static long[] idsInSlot(int slot, int count, long from) {
+    final long[] ids = new long[count];
+    int found = 0;
+    for (long id = from; found < count; id++) {
+      if (((int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (PendingCallTable.INITIAL_CAPACITY - 1)) == slot) {
+        ids[found++] = id;
+      }
+    }
+
+    return ids;
+  }
+
+  @Test
+  void putAndRemove() {
+    final PendingCall a = call(1);
+    final PendingCall b = call(2);
+    table.put(1, a);
+    table.put(2, b);
+    assertEquals(2, table.size());
+
+    assertSame(a, table.remove(1));
+    assertNull(table.remove(1));
+    assertEquals(1, table.size());
+    assertSame(b, table.remove(2));
+    assertEquals(0, table.size());
+  }
+
+  @Test
+  void rejectsPendingIds() {
+    table.put(7, call(7));
+    assertThrows(IllegalStateException.class, () -> table.put(7, call(7)));
+  }
+
+  @Test
+  void removesOnlyTheGivenCall() {
+    final PendingCall a = call(5);
+    table.put(5, a);
+
+    assertFalse(table.remove(5, call(5)));
+    assertFalse(table.remove(6, a));
+    assertEquals(1, table.size());
+
+    assertTrue(table.remove(5, a));
+    assertEquals(0, table.size());
+  }
+
+  @Test
+  void shiftsBackEntriesWrappingAroundTheEnd() {
+    final int last = PendingCallTable.INITIAL_CAPACITY - 1;
+    final long[] atEnd = idsInSlot(last, 3, 1);
+    final long[] atStart = idsInSlot(0, 2, 1);
+
+    // atEnd[0] takes the last slot, the others wrap around to the start, before the entries preferring it
+    final List<Long> ids = List.of(atEnd[0], atEnd[1], atEnd[2], atStart[0], atStart[1]);
+    final Map<Long, PendingCall> calls = new HashMap<>();
+    for (long id : ids) {
+      calls.put(id, call(id));
+      table.put(id, calls.get(id));
+    }
+
+    // the entry in the last slot is removed, every other one has to be shifted back across the end
+    assertSame(calls.remove(atEnd[0]), table.remove(atEnd[0]));
+    for (Map.Entry<Long, PendingCall> entry : calls.entrySet()) {
+      assertSame(entry.getValue(), table.remove(entry.getKey()), "Lost call " + entry.getKey());
+    }
+
+    assertEquals(0, table.size());
+  }
+
+  @Test
+  void shiftsBackEntriesDisplacedByAWrappedEntry() {
+    final int last = PendingCallTable.INITIAL_CAPACITY - 1;
+    final long[] atEnd = idsInSlot(last, 2, 1);
+    final long[] atStart = idsInSlot(0, 1, 1);
+    final long[] atSecond = idsInSlot(1, 1, 1);
+
+    // slots: last=atEnd[0], 0=atEnd[1], 1=atStart[0], 2=atSecond[0]
+    table.put(atEnd[0], call(atEnd[0]));
+    table.put(atEnd[1], call(atEnd[1]));
+    table.put(atStart[0], call(atStart[0]));
+    table.put(atSecond[0], call(atSecond[0]));
+
+    // removing the wrapped entry moves atStart[0] into slot 0 and atSecond[0] into slot 1
+    assertNotNull(table.remove(atEnd[1]));
+    assertNotNull(table.remove(atSecond[0]));
+    assertNotNull(table.remove(atStart[0]));
+    assertNotNull(table.remove(atEnd[0]));
+    assertEquals(0, table.size());
+  }
+
+  @Test
+  void growsBeyondTheInitialCapacity() {
+    final int count = PendingCallTable.INITIAL_CAPACITY * 8;
+    final PendingCall[] calls = new PendingCall[count + 1];
+    for (int id = 1; id <= count; id++) {
+      table.put(id, calls[id] = call(id));
+    }
+
+    assertEquals(count, table.size());
+    for (int id = 1; id <= count; id++) {
+      assertSame(calls[id], table.remove(id));
+    }
+
+    assertEquals(0, table.size());
+  }
+
+  @Test
+  void matchesAMapUnderRandomOperations() {
+    final Random random = new Random(42);
+    final Map<Long, PendingCall> expected = new HashMap<>();
+    for (int i = 0; i < 100_000; i++) {
+      final long id = 1 + random.nextInt(256);
+      if (expected.containsKey(id)) {
+        assertSame(expected.remove(id), table.remove(id));
+      } else {
+        final PendingCall call = call(id);
+        expected.put(id, call);
+        table.put(id, call);
+      }
+
+      assertEquals(expected.size(), table.size());
+    }
+
+    for (Map.Entry<Long, PendingCall> entry : expected.entrySet()) {
+      assertSame(entry.getValue(), table.remove(entry.getKey()));
+    }
+  }
+
+  @Test
+  void drainsEveryCall() {
+    final List<PendingCall> calls = new ArrayList<>();
+    for (int id = 1; id <= 20; id++) {
+      calls.add(call(id));
+      table.put(id, calls.get(id - 1));
+    }
+
+    final List<PendingCall> drained = new ArrayList<>();
+    table.drain(drained::add);
+    assertEquals(20, drained.size());
+    assertTrue(drained.containsAll(calls));
+    assertEquals(0, table.size());
+    assertNull(table.remove(1));
+
+    // the table is usable afterwards
+    table.put(1, calls.get(0));
+    assertSame(calls.get(0), table.remove(1));
+
+    table.drain(call -> fail("Drained an empty table"));
+  }
+
+}
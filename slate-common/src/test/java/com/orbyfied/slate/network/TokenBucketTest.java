@@ -0,0 +1,88 @@
+package com.orbyfied.slate.network;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+  // one token per nanosecond keeps the arithmetic exact
+  static final long RATE = 1_000_000_000L;
+
+  @Test
+  void rejectsInvalidParameters() {
+    assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 100, 0));
+    assertThrows(IllegalArgumentException.class, () -> new TokenBucket(RATE, 0, 0));
+  }
+
+  @Test
+  void startsFull() {
+    final TokenBucket bucket = new TokenBucket(RATE, 100, 0);
+    assertEquals(100, bucket.tokens());
+    assertEquals(0, bucket.nanosUntilAvailable(100, 0));
+  }
+
+  @Test
+  void refillsAtTheRate() {
+    final TokenBucket bucket = new TokenBucket(RATE, 100, 0);
+    bucket.take(100);
+    assertEquals(10, bucket.nanosUntilAvailable(10, 0));
+
+    assertEquals(4, bucket.nanosUntilAvailable(10, 6));
+    assertEquals(0, bucket.nanosUntilAvailable(10, 10));
+    assertEquals(10, bucket.tokens());
+  }
+
+  @Test
+  void refillsUpToTheCapacity() {
+    final TokenBucket bucket = new TokenBucket(RATE, 100, 0);
+    bucket.take(50);
+    assertEquals(0, bucket.nanosUntilAvailable(1, 1_000_000));
+    assertEquals(100, bucket.tokens());
+  }
+
+  @Test
+  void ignoresTimeGoingBackwards() {
+    final TokenBucket bucket = new TokenBucket(RATE, 100, 1000);
+    bucket.take(100);
+    assertEquals(10, bucket.nanosUntilAvailable(10, 500));
+    assertEquals(0, bucket.tokens());
+    assertEquals(0, bucket.nanosUntilAvailable(10, 1010));
+  }
+
+  @Test
+  void amountsLargerThanTheCapacityLeaveTheBucketInDebt() {
+    final TokenBucket bucket = new TokenBucket(RATE, 100, 0);
+    bucket.take(60);
+
+    // only waits until the bucket is full
+    assertEquals(60, bucket.nanosUntilAvailable(500, 0));
+    assertEquals(0, bucket.nanosUntilAvailable(500, 60));
+
+    bucket.take(500);
+    assertEquals(-400, bucket.tokens());
+    assertEquals(401, bucket.nanosUntilAvailable(1, 60));
+  }
+
+  @Test
+  void limitsTheAverageRate() {
+    final TokenBucket bucket = new TokenBucket(1000, 10, 0);
+
+    // a second worth of frames of 5 tokens each, taken as soon as they are available
+    long now = 0;
+    int taken = 0;
+    while (now <= 1_000_000_000L) {
+      now += bucket.nanosUntilAvailable(5, now);
+      if (now > 1_000_000_000L) {
+        break;
+      }
+
+      bucket.take(5);
+      taken++;
+    }
+
+    // the burst of the capacity plus the rate
+    assertEquals((10 + 1000) / 5, taken, 1);
+  }
+
+}
@@ -0,0 +1,66 @@
+package com.orbyfied.slate.network;
+
+import com.orbyfied.slate.network.worker.ThreadConnectionWorker;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkerSelectorTest {
+
+  static final Map<String, WorkerSelector> SELECTORS = Map.of(
+      "roundRobin", WorkerSelector.roundRobin(),
+      "leastConnections", WorkerSelector.leastConnections(),
+      "leastThroughput", WorkerSelector.leastThroughput(),
+      "powerOfTwoChoices", WorkerSelector.powerOfTwoChoices(),
+      "consistentHash", WorkerSelector.consistentHash()
+  );
+
+  @Test
+  void selectsNoWorkerFromAnEmptyPool() throws IOException {
+    final ConnectionManager manager = new ConnectionManager();
+    try (SocketChannel channel = SocketChannel.open()) {
+      final Connection connection = new Connection(manager, channel);
+      SELECTORS.forEach((name, selector) ->
+          assertNull(selector.next(manager, connection), name));
+    }
+  }
+
+  @Test
+  void selectsTheOnlyWorkerOfASingleWorkerPool() throws IOException {
+    final ConnectionManager manager = new ConnectionManager();
+    final ConnectionWorker worker = new ThreadConnectionWorker(manager);
+    manager.provideWorkers(List.of(worker));
+
+    try (SocketChannel channel = SocketChannel.open()) {
+      final Connection connection = new Connection(manager, channel);
+      SELECTORS.forEach((name, selector) -> {
+        for (int i = 0; i < 4; i++) {
+          assertSame(worker, selector.next(manager, connection), name);
+        }
+      });
+    }
+  }
+
+  @Test
+  void selectsWorkersOfTheLargerPool() throws IOException {
+    final ConnectionManager manager = new ConnectionManager();
+    final List<ConnectionWorker> workers = List.of(
+        new ThreadConnectionWorker(manager), new ThreadConnectionWorker(manager), new ThreadConnectionWorker(manager));
+    manager.provideWorkers(workers);
+
+    try (SocketChannel channel = SocketChannel.open()) {
+      final Connection connection = new Connection(manager, channel);
+      SELECTORS.forEach((name, selector) -> {
+        for (int i = 0; i < 16; i++) {
+          assertTrue(workers.contains(selector.next(manager, connection)), name);
+        }
+      });
+    }
+  }
+
+}